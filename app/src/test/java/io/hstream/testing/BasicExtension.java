@@ -7,49 +7,91 @@ import static io.hstream.testing.TestUtils.printBeginFlag;
 import static io.hstream.testing.TestUtils.printEndFlag;
 import static io.hstream.testing.TestUtils.writeLog;
 
-import java.nio.file.Files;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.util.UUID;
 import org.junit.jupiter.api.extension.AfterEachCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.BeforeTestExecutionCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.InvocationInterceptor;
+import org.junit.jupiter.api.extension.ReflectiveInvocationContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testcontainers.containers.GenericContainer;
 
-public class BasicExtension implements BeforeEachCallback, AfterEachCallback {
+public class BasicExtension
+    implements BeforeEachCallback,
+        BeforeTestExecutionCallback,
+        AfterEachCallback,
+        InvocationInterceptor {
 
   private static final Logger logger = LoggerFactory.getLogger(BasicExtension.class);
   private Path dataDir;
   private GenericContainer<?> zk;
   private GenericContainer<?> hstore;
   private GenericContainer<?> hserver;
+  private ContainerStatsSampler statsSampler;
+  private PhaseTracer tracer;
+  private LogAnalyzer logAnalyzer;
+  private FlightRecording flightRecording;
   private long beginTime;
 
   @Override
   public void beforeEach(ExtensionContext context) throws Exception {
     beginTime = System.currentTimeMillis();
+    tracer = new PhaseTracer();
     printBeginFlag(context);
+    ConsumerRuntime.bind(context);
+    MetricsRegistry.resolve(context);
 
-    dataDir = Files.createTempDirectory("hstream");
+    LogSettings logSettings = LogSettings.resolve(context);
+    ContainerLimits containerLimits = ContainerLimits.resolve(context);
+    dataDir = ForkSlot.current().newDataDir();
+    containerLimits.checkDataDir(dataDir);
+    statsSampler = new ContainerStatsSampler();
+    logAnalyzer = LogAnalyzer.resolve(context, statsSampler.beginMillis());
 
+    tracer.phase("zk-start");
     zk = makeZooKeeper();
+    containerLimits.applyTo(zk, ContainerLimits.Kind.ZK);
+    zk.withLogConsumer(logAnalyzer.consumer("zk"));
     zk.start();
+    statsSampler.add("zk", zk);
     String zkHost = "127.0.0.1";
     logger.debug("zkHost: " + zkHost);
 
-    hstore = makeHStore(dataDir);
+    tracer.phase("hstore-start");
+    hstore = makeHStore(dataDir, logSettings);
+    containerLimits.applyTo(hstore, ContainerLimits.Kind.STORE);
+    hstore.withLogConsumer(logAnalyzer.consumer("hstore"));
     hstore.start();
+    statsSampler.add("hstore", hstore);
     String hstoreHost = "127.0.0.1";
     logger.debug("hstoreHost: " + hstoreHost);
 
+    tracer.phase("hserver-start");
     String hServerAddress = "127.0.0.1";
-    int hServerPort = 6570;
-    int hServerInnerPort = 65000;
+    int hServerPort = ForkSlot.current().hServerPort(0);
+    int hServerInnerPort = ForkSlot.current().hServerInternalPort(0);
     hserver =
-        makeHServer(hServerAddress, hServerPort, hServerInnerPort, dataDir, zkHost, hstoreHost, 0);
+        makeHServer(
+            hServerAddress,
+            hServerPort,
+            hServerInnerPort,
+            dataDir,
+            zkHost,
+            hstoreHost,
+            0,
+            logSettings);
+    containerLimits.applyTo(hserver, ContainerLimits.Kind.SERVER);
+    hserver.withLogConsumer(logAnalyzer.consumer("hserver"));
     hserver.start();
+    statsSampler.add("hserver", hserver);
+    tracer.phase("settle");
     Thread.sleep(1000);
+    tracer.end();
+    TestHistory.recordSetup(context, System.currentTimeMillis() - beginTime);
     Object testInstance = context.getRequiredTestInstance();
     testInstance
         .getClass()
@@ -61,24 +103,91 @@ public class BasicExtension implements BeforeEachCallback, AfterEachCallback {
         .invoke(testInstance, hserver);
   }
 
+  @Override
+  public void beforeTestExecution(ExtensionContext context) throws Exception {
+    Instrumented.instrument(context.getRequiredTestInstance(), MetricsRegistry.of(context));
+    flightRecording = FlightRecording.startIfRequested(context);
+  }
+
+  @Override
+  public void interceptBeforeEachMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-setup", invocation);
+  }
+
+  @Override
+  public void interceptTestMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-body", invocation);
+  }
+
+  @Override
+  public void interceptTestTemplateMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-body", invocation);
+  }
+
+  @Override
+  public void interceptAfterEachMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-teardown", invocation);
+  }
+
   @Override
   public void afterEach(ExtensionContext context) throws Exception {
+    tracer.phase("consumers-stop");
+    ConsumerRuntime.get().stopAll();
     String grp = UUID.randomUUID().toString();
+    tracer.phase("metrics-collection");
+    statsSampler.close();
+    statsSampler.write(context, grp);
+    logAnalyzer.write(context, grp);
+    if (flightRecording != null) {
+      tracer.phase("flight-recording");
+      flightRecording.stop(context, grp);
+      flightRecording = null;
+    }
+    MetricsRegistry metricsRegistry = MetricsRegistry.of(context);
+    if (metricsRegistry != null && !metricsRegistry.isEmpty()) {
+      metricsRegistry.report().write(context, grp);
+    }
 
+    tracer.phase("hserver-logs");
     writeLog(context, "hserver", grp, hserver.getLogs());
+    tracer.phase("hserver-stop");
     hserver.close();
 
+    tracer.phase("hstore-logs");
     writeLog(context, "hstore", grp, hstore.getLogs());
+    tracer.phase("hstore-stop");
     hstore.close();
 
+    tracer.phase("zk-logs");
     writeLog(context, "zk", grp, zk.getLogs());
+    tracer.phase("zk-stop");
     zk.close();
+    writeLog(context, "payload-seed", grp, String.valueOf(PayloadGenerator.seed()));
+    writeLog(context, "log-settings", grp, String.valueOf(LogSettings.of(context)));
+    writeLog(context, "container-limits", grp, String.valueOf(ContainerLimits.of(context)));
 
     hserver = null;
     hstore = null;
     zk = null;
     dataDir = null;
 
+    tracer.write(context, grp);
     logger.info("total time is = {}ms", System.currentTimeMillis() - beginTime);
     printEndFlag(context);
   }
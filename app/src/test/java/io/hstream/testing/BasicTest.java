@@ -23,17 +23,15 @@ import io.hstream.Stream;
 import io.hstream.Subscription;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -337,14 +335,14 @@ class BasicTest {
     producer.close();
 
     final String subscription = randSubscription(hStreamClient, streamName);
-    List<String> res = new ArrayList<>();
+    PayloadDigests res = new PayloadDigests();
     consume(
         hStreamClient,
         subscription,
         "c1",
         20,
         receivedRawRecord -> {
-          res.add(Arrays.toString(receivedRawRecord.getRawRecord()));
+          res.add(receivedRawRecord.getRawRecord());
           return res.size() < records.size();
         });
     Assertions.assertEquals(records, res);
@@ -359,19 +357,17 @@ class BasicTest {
 
     CountDownLatch notify = new CountDownLatch(records.size());
     final String subscription = randSubscription(hStreamClient, streamName);
-    List<String> res = new ArrayList<>();
+    PayloadDigests res = new PayloadDigests();
     consume(
         hStreamClient,
         subscription,
         "c1",
         10,
         receivedRawRecord -> {
-          res.add(Arrays.toString(receivedRawRecord.getRawRecord()));
+          res.add(receivedRawRecord.getRawRecord());
           return res.size() < records.size();
         });
-    Assertions.assertEquals(
-        records.stream().sorted().collect(Collectors.toList()),
-        res.stream().sorted().collect(Collectors.toList()));
+    Assertions.assertEquals(records.sorted(), res.sorted());
   }
 
   @Test
@@ -628,11 +624,11 @@ class BasicTest {
     final String subscriptionName = randSubscription(hStreamClient, streamName);
     final int msgCnt = 2048;
     BufferedProducer producer = makeBufferedProducer(hStreamClient, streamName, 32);
-    Set<String> recordIds0 = new HashSet<>(doProduceAndGatherRid(producer, 1, msgCnt));
+    RecordIdSet recordIds0 = doProduceAndGatherRid(producer, 1, msgCnt);
     producer.close();
     Assertions.assertEquals(msgCnt, recordIds0.size());
     CountDownLatch countDown = new CountDownLatch(msgCnt);
-    Set<String> recordIds1 = new HashSet<>();
+    RecordIdSet recordIds1 = new RecordIdSet(msgCnt);
     Consumer consumer =
         hStreamClient
             .newConsumer()
@@ -686,14 +682,14 @@ class BasicTest {
     var records = doProduce(producer, 1024 * 4, 2700);
     producer.close();
     final String subscription = randSubscription(hStreamClient, streamName);
-    List<String> res = new ArrayList<>();
+    PayloadDigests res = new PayloadDigests();
     consume(
         hStreamClient,
         subscription,
         "c1",
         35,
         receivedRawRecord -> {
-          res.add(Arrays.toString(receivedRawRecord.getRawRecord()));
+          res.add(receivedRawRecord.getRawRecord());
           return res.size() < records.size();
         });
     logger.info("records size = " + records.size());
@@ -706,16 +702,14 @@ class BasicTest {
   void testRedundancyAndUnorderedAck() throws Exception {
     final String streamName = randStream(hStreamClient);
     BufferedProducer producer = makeBufferedProducer(hStreamClient, streamName, 10);
-    Random rand = new Random();
     var records = doProduce(producer, 128, 1000);
     producer.close();
     final String subscription = randSubscription(hStreamClient, streamName);
 
     CountDownLatch notify = new CountDownLatch(records.size());
-    List<String> res1 = new ArrayList<>();
-    var responders = new LinkedList<Responder>();
+    var res1 = new ConcurrentPayloadDigests();
+    var responders = new ConcurrentLinkedDeque<Responder>();
     var missCnt = new AtomicInteger(50);
-    var lock = new ReentrantLock();
     Consumer consumer =
         hStreamClient
             .newConsumer()
@@ -723,10 +717,8 @@ class BasicTest {
             .name("test-consumer")
             .rawRecordReceiver(
                 ((rawRecord, responder) -> {
-                  if (rand.nextInt(10) % 2 != 0) {
-                    lock.lock();
+                  if (ThreadLocalRandom.current().nextInt(10) % 2 != 0) {
                     responders.push(responder);
-                    lock.unlock();
                     var tmp = missCnt.getAcquire();
                     if (tmp > 0) {
                       missCnt.setRelease(tmp - 1);
@@ -736,14 +728,12 @@ class BasicTest {
                   } else {
                     responder.ack();
                   }
-                  lock.lock();
-                  res1.add(Arrays.toString(rawRecord.getRawRecord()));
-                  lock.unlock();
+                  res1.add(rawRecord.getRawRecord());
                   notify.countDown();
                 }))
             .build();
 
-    List<String> res2 = new ArrayList<>();
+    var res2 = new ConcurrentPayloadDigests();
     Consumer consumer2 =
         hStreamClient
             .newConsumer()
@@ -751,16 +741,16 @@ class BasicTest {
             .name("test-consumer2")
             .rawRecordReceiver(
                 ((rawRecord, responder) -> {
-                  res2.add(Arrays.toString(rawRecord.getRawRecord()));
+                  res2.add(rawRecord.getRawRecord());
                   responder.ack();
-                  if (rand.nextInt(10) % 2 != 0
-                      && !responders.isEmpty()
-                      && missCnt.getAcquire() <= 0) {
-                    lock.lock();
-                    Collections.shuffle(responders);
-                    var respd = responders.poll();
-                    lock.unlock();
-                    respd.ack();
+                  var random = ThreadLocalRandom.current();
+                  if (random.nextInt(10) % 2 != 0 && missCnt.getAcquire() <= 0) {
+                    // ack from either end to keep acks out of delivery order
+                    var respd =
+                        random.nextBoolean() ? responders.pollFirst() : responders.pollLast();
+                    if (respd != null) {
+                      respd.ack();
+                    }
                   }
                   notify.countDown();
                 }))
@@ -778,10 +768,9 @@ class BasicTest {
     Assertions.assertTrue(done);
     logger.info("records.size = {}, res.size = {}\n", records.size(), res1.size() + res2.size());
     Assertions.assertEquals(records.size(), res1.size() + res2.size());
-    res1.addAll(res2);
-    Assertions.assertEquals(
-        records.stream().sorted().collect(Collectors.toList()),
-        res1.stream().sorted().collect(Collectors.toList()));
+    var res = res1.snapshot();
+    res.addAll(res2.snapshot());
+    Assertions.assertEquals(records.sorted(), res.sorted());
   }
 
   // -----------------------------------------------------------------------------------------------
@@ -1255,14 +1244,14 @@ class BasicTest {
     String stream = randStream(hStreamClient1);
     hStreamClient1.close();
 
-    Set<String> recordIds0 = new HashSet<>();
+    RecordIdSet recordIds0 = new RecordIdSet(total);
     String subscription = randSubscription(hStreamClient, stream);
     Producer producer = hStreamClient.newProducer().stream(stream).build();
     for (int i = 0; i < total; ++i) {
       recordIds0.add(producer.write(buildRecord(randRecs)).join());
     }
 
-    Set<String> recordIds1 = new HashSet<>();
+    RecordIdSet recordIds1 = new RecordIdSet(total);
     HStreamClient hStreamClient2 = HStreamClient.builder().serviceUrl(hServerUrls.get(2)).build();
     consume(
         hStreamClient2,
@@ -1283,12 +1272,12 @@ class BasicTest {
     final String stream = randStream(hStreamClient);
     final String subscription = randSubscription(hStreamClient, stream);
     Producer producer = hStreamClient.newProducer().stream(stream).build();
-    Set<String> recordIds = new HashSet<>();
+    RecordIdSet recordIds = new RecordIdSet(msgCnt);
     for (int i = 0; i < msgCnt; ++i) {
       Assertions.assertTrue(recordIds.add(producer.write(randRawRec()).join()));
     }
     Assertions.assertEquals(msgCnt, recordIds.size());
-    Set<String> recordIds0 = new HashSet<>();
+    RecordIdSet recordIds0 = new RecordIdSet(msgCnt);
     var future1 =
         consumeAsync(
             hStreamClient,
@@ -1298,7 +1287,7 @@ class BasicTest {
               recordIds0.add(receivedRawRecord.getRecordId());
               return recordIds0.size() < msgCnt;
             });
-    Set<String> recordIds1 = new HashSet<>();
+    RecordIdSet recordIds1 = new RecordIdSet(msgCnt);
     var future2 =
         consumeAsync(
             hStreamClient,
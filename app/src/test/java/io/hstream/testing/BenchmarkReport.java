@@ -0,0 +1,126 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.writeLog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** A table of benchmark results, one row per scenario, written next to the container logs. */
+public class BenchmarkReport {
+
+  private static final Logger logger = LoggerFactory.getLogger(BenchmarkReport.class);
+  private final String name;
+  private final List<Map<String, String>> rows = new ArrayList<>();
+  private final List<String> notes = new ArrayList<>();
+
+  public BenchmarkReport(String name) {
+    this.name = name;
+  }
+
+  public Row row(String scenario) {
+    Map<String, String> columns = new LinkedHashMap<>();
+    columns.put("scenario", scenario);
+    rows.add(columns);
+    return new Row(columns);
+  }
+
+  /** Adds a line to the header, e.g. on what the numbers leave out. */
+  public BenchmarkReport note(String note) {
+    notes.add(note);
+    return this;
+  }
+
+  public String render() {
+    return render(null, null);
+  }
+
+  private String render(LogSettings logSettings, ContainerLimits containerLimits) {
+    Set<String> header = new LinkedHashSet<>();
+    rows.forEach(r -> header.addAll(r.keySet()));
+    Map<String, Integer> widths = new LinkedHashMap<>();
+    for (String column : header) {
+      int width = column.length();
+      for (var r : rows) {
+        width = Math.max(width, r.getOrDefault(column, "").length());
+      }
+      widths.put(column, width);
+    }
+
+    StringBuilder sb = new StringBuilder();
+    sb.append("# ").append(name).append('\n');
+    if (logSettings != null) {
+      sb.append("# ").append(logSettings).append('\n');
+    }
+    if (containerLimits != null) {
+      sb.append("# ").append(containerLimits).append('\n');
+    }
+    for (String note : notes) {
+      sb.append("# ").append(note).append('\n');
+    }
+    for (String column : header) {
+      sb.append(String.format("%-" + widths.get(column) + "s  ", column));
+    }
+    sb.append('\n');
+    for (var r : rows) {
+      for (String column : header) {
+        sb.append(String.format("%-" + widths.get(column) + "s  ", r.getOrDefault(column, "")));
+      }
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  public void write(ExtensionContext context, String grp) throws Exception {
+    String report = render(LogSettings.of(context), ContainerLimits.of(context));
+    logger.info("\n{}", report);
+    writeLog(context, "report-" + name, grp, report);
+  }
+
+  public static class Row {
+    private final Map<String, String> columns;
+
+    Row(Map<String, String> columns) {
+      this.columns = columns;
+    }
+
+    public Row put(String column, Object value) {
+      columns.put(column, String.valueOf(value));
+      return this;
+    }
+
+    public Row put(String column, long value) {
+      columns.put(column, String.valueOf(value));
+      return this;
+    }
+
+    public Row put(String column, double value) {
+      columns.put(column, String.format("%.2f", value));
+      return this;
+    }
+
+    /** Records {@code count} operations of {@code bytes} bytes done in {@code nanos}. */
+    public Row throughput(long count, long bytes, long nanos) {
+      double seconds = nanos / 1e9;
+      put("ops", count);
+      put("ops/s", count / seconds);
+      put("MB/s", bytes / seconds / 1024 / 1024);
+      return this;
+    }
+
+    /** Records the percentiles of a histogram of microseconds. */
+    public Row latency(String prefix, Histogram histogram) {
+      put(prefix + "-p50(us)", histogram.getValueAtPercentile(50));
+      put(prefix + "-p99(us)", histogram.getValueAtPercentile(99));
+      put(prefix + "-max(us)", histogram.getMaxValue());
+      return this;
+    }
+  }
+}
@@ -0,0 +1,408 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.writeLog;
+
+import com.github.dockerjava.api.DockerClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.output.FrameConsumerResultCallback;
+import org.testcontainers.containers.output.OutputFrame;
+
+/**
+ * Injects faults into the containers of a cluster on a timeline, while a workload runs: {@link
+ * Action#KILL} kills a container with SIGKILL, {@link Action#RESTART} starts it again, {@link
+ * Action#PAUSE} freezes its processes and {@link Action#UNPAUSE} thaws them. The timeline is either
+ * a script, e.g. {@code "5s kill hserver-1; 15s restart hserver-1"}, or drawn from a seed by {@link
+ * #random}, and replays the same for the same seed.
+ *
+ * <p>A container keeps its id, data and logs across a kill and restart, like a crashed process
+ * restarted by a supervisor, and its log consumer follows its output again after the restart. A
+ * restart runs the command of the container again: for {@code hstore} that is {@code
+ * ld-dev-cluster}, which sets up a new dev cluster over the data directory rather than recovering
+ * the crashed one, so {@link #random} never picks it and a script restarting it tests that path
+ * only. The events are timed in the milliseconds of {@link ContainerStatsSampler}, so {@code
+ * chaos.csv} lines up with the {@code stats-*.csv} and {@code server-events.csv} series: a
+ * throughput dip can be put down to the fault before it. {@link #close} cancels the events not run
+ * yet and brings every container back up.
+ *
+ * <p>{@link ClusterExtension} hands a scheduler over the HServers ({@code hserver-<i>}), HStore
+ * ({@code hstore}) and ZooKeeper ({@code zk}) to the tests having a {@code setChaosScheduler}
+ * method.
+ */
+public class ChaosScheduler implements AutoCloseable {
+
+  public static final String EVENTS_HEADER = "time_ms,action,target,took_ms,error\n";
+  private static final Logger logger = LoggerFactory.getLogger(ChaosScheduler.class);
+
+  public enum Action {
+    KILL,
+    RESTART,
+    PAUSE,
+    UNPAUSE
+  }
+
+  /** An action on a target, {@code at} after the start of the scheduler. */
+  public static class Step {
+    final Duration at;
+    final Action action;
+    final String target;
+
+    public Step(Duration at, Action action, String target) {
+      this.at = at;
+      this.action = action;
+      this.target = target;
+    }
+
+    @Override
+    public String toString() {
+      return at.toMillis() + "ms " + action.name().toLowerCase() + " " + target;
+    }
+  }
+
+  private static class Event {
+    final long timeMillis;
+    final Step step;
+    final long tookMillis;
+    final String error;
+
+    Event(long timeMillis, Step step, long tookMillis, String error) {
+      this.timeMillis = timeMillis;
+      this.step = step;
+      this.tookMillis = tookMillis;
+      this.error = error;
+    }
+  }
+
+  private final Map<String, GenericContainer<?>> targets;
+  private final Map<String, Consumer<OutputFrame>> logConsumers;
+  private final long beginMillis;
+  private final List<Step> steps = new ArrayList<>();
+  // the steps started, at their times since beginMillis like the events
+  private final List<Step> startedSteps = new ArrayList<>();
+  private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+  private final Set<String> killed = ConcurrentHashMap.newKeySet();
+  private final Set<String> paused = ConcurrentHashMap.newKeySet();
+  private final List<ScheduledFuture<?>> futures = new ArrayList<>();
+  private int started;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "chaos-scheduler");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * {@code logConsumers} are those the targets were started with, if any, and {@code beginMillis}
+   * the time the event times are relative to.
+   */
+  public ChaosScheduler(
+      Map<String, GenericContainer<?>> targets,
+      Map<String, Consumer<OutputFrame>> logConsumers,
+      long beginMillis) {
+    this.targets = new LinkedHashMap<>(targets);
+    this.logConsumers = new HashMap<>(logConsumers);
+    this.beginMillis = beginMillis;
+  }
+
+  public Set<String> targets() {
+    return targets.keySet();
+  }
+
+  public GenericContainer<?> container(String target) {
+    return targets.get(target);
+  }
+
+  public synchronized ChaosScheduler schedule(List<Step> timeline) {
+    for (Step step : timeline) {
+      if (!targets.containsKey(step.target)) {
+        throw new IllegalArgumentException("unknown target " + step.target + " in " + step);
+      }
+    }
+    steps.addAll(timeline);
+    return this;
+  }
+
+  /** Parses a script of steps like {@code "500ms pause hstore; 3s unpause hstore"}. */
+  public static List<Step> script(String script) {
+    List<Step> timeline = new ArrayList<>();
+    for (String line : script.split("[;\n]")) {
+      String[] words = line.trim().split("\\s+");
+      if (words.length == 1 && words[0].isEmpty()) {
+        continue;
+      }
+      if (words.length != 3) {
+        throw new IllegalArgumentException("expected <time> <action> <target>, got " + line);
+      }
+      timeline.add(new Step(parseDuration(words[0]), parseAction(words[1]), words[2]));
+    }
+    return timeline;
+  }
+
+  private static Action parseAction(String text) {
+    try {
+      return Action.valueOf(text.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("expected kill, restart, pause or unpause, got " + text);
+    }
+  }
+
+  private static Duration parseDuration(String text) {
+    if (text.endsWith("ms")) {
+      return Duration.ofMillis(Long.parseLong(text.substring(0, text.length() - 2)));
+    }
+    if (text.endsWith("s")) {
+      return Duration.ofMillis(
+          Math.round(Double.parseDouble(text.substring(0, text.length() - 1)) * 1000));
+    }
+    throw new IllegalArgumentException("expected a time like 500ms or 1.5s, got " + text);
+  }
+
+  /**
+   * Draws a timeline of {@code duration} from the seed: one fault at a time, a kill followed by a
+   * restart or a pause followed by an unpause, on a random target, lasting from {@code minDown} to
+   * twice that, with a gap from {@code minGap} to twice that before the next one. A single fault at
+   * a time keeps a quorum of a three node cluster, so the workload can make progress in between.
+   * HStore is not a target: its restart does not recover it.
+   */
+  public static List<Step> random(
+      long seed, Duration duration, List<String> targets, Duration minGap, Duration minDown) {
+    if (targets.contains("hstore")) {
+      throw new IllegalArgumentException("a restart of hstore sets up a new cluster, not a target");
+    }
+    Random random = new Random(seed);
+    List<Step> timeline = new ArrayList<>();
+    long at = between(random, minGap);
+    while (true) {
+      long down = between(random, minDown);
+      if (at + down > duration.toMillis()) {
+        break;
+      }
+      String target = targets.get(random.nextInt(targets.size()));
+      boolean kill = random.nextBoolean();
+      timeline.add(new Step(Duration.ofMillis(at), kill ? Action.KILL : Action.PAUSE, target));
+      timeline.add(
+          new Step(Duration.ofMillis(at + down), kill ? Action.RESTART : Action.UNPAUSE, target));
+      at += down + between(random, minGap);
+    }
+    return timeline;
+  }
+
+  /** A seed for {@link #random}, {@code -Dchaos.seed} or a new one, logged to replay the run. */
+  public static long seed() {
+    String property = System.getProperty("chaos.seed");
+    long seed =
+        property != null ? Long.parseLong(property) : ThreadLocalRandom.current().nextLong();
+    logger.info("chaos seed is {}, rerun with -Dchaos.seed={} to reproduce", seed, seed);
+    return seed;
+  }
+
+  private static long between(Random random, Duration min) {
+    return min.toMillis() + (long) (random.nextDouble() * min.toMillis());
+  }
+
+  /**
+   * Runs the steps scheduled since the last start on their timeline from now on, so a test can
+   * inject one fault after another. {@code chaos-timeline} lists the steps of every start at their
+   * times since {@code beginMillis}, those of {@code chaos.csv}.
+   */
+  public synchronized ChaosScheduler start() {
+    List<Step> timeline = new ArrayList<>(steps.subList(started, steps.size()));
+    timeline.sort(Comparator.comparing(s -> s.at));
+    logger.info("chaos timeline: {}", timeline);
+    long startMillis = System.currentTimeMillis() - beginMillis;
+    for (Step step : timeline) {
+      futures.add(executor.schedule(() -> run(step), step.at.toMillis(), TimeUnit.MILLISECONDS));
+      startedSteps.add(new Step(step.at.plusMillis(startMillis), step.action, step.target));
+    }
+    started = steps.size();
+    return this;
+  }
+
+  /** Waits for the steps to have run, at most {@code timeout}. */
+  public void awaitCompletion(Duration timeout) throws Exception {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    List<ScheduledFuture<?>> scheduled;
+    synchronized (this) {
+      scheduled = new ArrayList<>(futures);
+    }
+    for (ScheduledFuture<?> future : scheduled) {
+      future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private void run(Step step) {
+    long begin = System.currentTimeMillis();
+    String error = null;
+    try {
+      apply(step.action, step.target);
+    } catch (Exception e) {
+      error = e.toString();
+      logger.warn("chaos step {} failed", step, e);
+    }
+    long end = System.currentTimeMillis();
+    events.add(new Event(begin - beginMillis, step, end - begin, error));
+    logger.info("chaos: {} {} took {}ms", step.action, step.target, end - begin);
+  }
+
+  private void apply(Action action, String target) {
+    DockerClient docker = DockerClientFactory.instance().client();
+    String containerId = targets.get(target).getContainerId();
+    switch (action) {
+      case KILL:
+        docker.killContainerCmd(containerId).exec();
+        killed.add(target);
+        break;
+      case RESTART:
+        // from the second of the restart on, the lines logged before the kill are not read again
+        int since = (int) (System.currentTimeMillis() / 1000);
+        docker.startContainerCmd(containerId).exec();
+        killed.remove(target);
+        Consumer<OutputFrame> logConsumer = logConsumers.get(target);
+        if (logConsumer != null) {
+          follow(docker, containerId, logConsumer, since);
+        }
+        break;
+      case PAUSE:
+        docker.pauseContainerCmd(containerId).exec();
+        paused.add(target);
+        break;
+      case UNPAUSE:
+        docker.unpauseContainerCmd(containerId).exec();
+        paused.remove(target);
+        break;
+      default:
+        throw new IllegalArgumentException(action.name());
+    }
+  }
+
+  /**
+   * Feeds the output of the restarted container to its consumer, as the first start did, until the
+   * container stops.
+   */
+  private void follow(
+      DockerClient docker, String containerId, Consumer<OutputFrame> logConsumer, int since) {
+    FrameConsumerResultCallback callback = new FrameConsumerResultCallback();
+    callback.addConsumer(OutputFrame.OutputType.STDOUT, logConsumer);
+    callback.addConsumer(OutputFrame.OutputType.STDERR, logConsumer);
+    docker
+        .logContainerCmd(containerId)
+        .withFollowStream(true)
+        .withStdOut(true)
+        .withStdErr(true)
+        .withSince(since)
+        .exec(callback);
+  }
+
+  /** Cancels the steps not run yet, then unpauses and restarts the containers left down. */
+  @Override
+  public synchronized void close() {
+    futures.forEach(f -> f.cancel(false));
+    executor.shutdown();
+    try {
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (String target : List.copyOf(paused)) {
+      run(new Step(Duration.ZERO, Action.UNPAUSE, target));
+    }
+    for (String target : List.copyOf(killed)) {
+      run(new Step(Duration.ZERO, Action.RESTART, target));
+    }
+  }
+
+  public String toCsv() {
+    StringBuilder csv = new StringBuilder(EVENTS_HEADER);
+    for (Event event : events) {
+      csv.append(event.timeMillis)
+          .append(',')
+          .append(event.step.action.name().toLowerCase())
+          .append(',')
+          .append(event.step.target)
+          .append(',')
+          .append(event.tookMillis)
+          .append(',')
+          .append(event.error == null ? "" : event.error.replace(',', ';'))
+          .append('\n');
+    }
+    return csv.toString();
+  }
+
+  /** Per target: the faults, the time spent down or paused and the failed steps. */
+  public BenchmarkReport report() {
+    Map<String, long[]> perTarget = new TreeMap<>();
+    Map<String, Long> downSince = new HashMap<>();
+    for (Event event : events) {
+      long[] row = perTarget.computeIfAbsent(event.step.target, k -> new long[4]);
+      switch (event.step.action) {
+        case KILL:
+          row[0]++;
+          downSince.put(event.step.target, event.timeMillis);
+          break;
+        case PAUSE:
+          row[1]++;
+          downSince.put(event.step.target, event.timeMillis);
+          break;
+        default:
+          Long since = downSince.remove(event.step.target);
+          if (since != null) {
+            row[2] += event.timeMillis - since;
+          }
+      }
+      if (event.error != null) {
+        row[3]++;
+      }
+    }
+    BenchmarkReport report = new BenchmarkReport("chaos");
+    perTarget.forEach(
+        (target, row) ->
+            report
+                .row(target)
+                .put("kills", row[0])
+                .put("pauses", row[1])
+                .put("down(ms)", row[2])
+                .put("failed-steps", row[3]));
+    return report;
+  }
+
+  public void write(ExtensionContext context, String grp) throws Exception {
+    if (events.isEmpty()) {
+      return;
+    }
+    List<Step> timeline;
+    synchronized (this) {
+      timeline = new ArrayList<>(startedSteps);
+    }
+    writeLog(
+        context,
+        "chaos-timeline",
+        grp,
+        timeline.stream().map(Step::toString).collect(Collectors.joining("\n")));
+    writeLog(context, "chaos.csv", grp, toCsv());
+    report().write(context, grp);
+  }
+}
@@ -0,0 +1,93 @@
+package io.hstream.testing;
+
+import io.hstream.testing.ChaosScheduler.Action;
+import io.hstream.testing.ChaosScheduler.Step;
+import java.time.Duration;
+import java.util.List;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** The scripted and the seeded timelines of {@link ChaosScheduler}. */
+public class ChaosSchedulerTest {
+
+  private static final List<String> SERVERS = List.of("hserver-0", "hserver-1", "hserver-2");
+
+  private static void assertStep(Step step, long atMillis, Action action, String target) {
+    Assertions.assertEquals(atMillis, step.at.toMillis());
+    Assertions.assertEquals(action, step.action);
+    Assertions.assertEquals(target, step.target);
+  }
+
+  @Test
+  void testScript() {
+    List<Step> timeline =
+        ChaosScheduler.script("500ms pause hstore; 1.5s unpause hstore\n  3s KILL hserver-1;");
+    Assertions.assertEquals(3, timeline.size());
+    assertStep(timeline.get(0), 500, Action.PAUSE, "hstore");
+    assertStep(timeline.get(1), 1500, Action.UNPAUSE, "hstore");
+    assertStep(timeline.get(2), 3000, Action.KILL, "hserver-1");
+    assertStep(ChaosScheduler.script("1.001s restart zk").get(0), 1001, Action.RESTART, "zk");
+    Assertions.assertTrue(ChaosScheduler.script(" ; ").isEmpty());
+  }
+
+  @Test
+  void testBadScripts() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> ChaosScheduler.script("5s reboot hserver-1"));
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> ChaosScheduler.script("5m kill hserver-1"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> ChaosScheduler.script("5s kill"));
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> ChaosScheduler.script("kill hserver-1 5s"));
+  }
+
+  private static List<Step> random(long seed) {
+    return ChaosScheduler.random(
+        seed, Duration.ofSeconds(120), SERVERS, Duration.ofSeconds(5), Duration.ofSeconds(2));
+  }
+
+  @Test
+  void testSameSeedSameTimeline() {
+    Assertions.assertEquals(random(42).toString(), random(42).toString());
+    Assertions.assertNotEquals(random(42).toString(), random(43).toString());
+  }
+
+  @Test
+  void testOneFaultAtATime() {
+    for (long seed = 0; seed < 100; seed++) {
+      List<Step> timeline = random(seed);
+      Assertions.assertFalse(timeline.isEmpty());
+      Assertions.assertEquals(0, timeline.size() % 2);
+      long recovered = 0;
+      for (int i = 0; i < timeline.size(); i += 2) {
+        Step fault = timeline.get(i);
+        Step recovery = timeline.get(i + 1);
+        Assertions.assertTrue(fault.action == Action.KILL || fault.action == Action.PAUSE);
+        Assertions.assertEquals(
+            fault.action == Action.KILL ? Action.RESTART : Action.UNPAUSE, recovery.action);
+        Assertions.assertEquals(fault.target, recovery.target);
+        Assertions.assertTrue(SERVERS.contains(fault.target));
+        // after the gap since the previous recovery, and down for minDown to twice that
+        long gap = fault.at.toMillis() - recovered;
+        Assertions.assertTrue(gap >= 5000 && gap <= 10000, "gap " + gap);
+        long down = recovery.at.toMillis() - fault.at.toMillis();
+        Assertions.assertTrue(down >= 2000 && down <= 4000, "down " + down);
+        recovered = recovery.at.toMillis();
+      }
+      Assertions.assertTrue(recovered <= 120_000);
+    }
+  }
+
+  @Test
+  void testHStoreIsNotARandomTarget() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            ChaosScheduler.random(
+                1,
+                Duration.ofSeconds(60),
+                List.of("hserver-0", "hstore"),
+                Duration.ofSeconds(5),
+                Duration.ofSeconds(2)));
+  }
+}
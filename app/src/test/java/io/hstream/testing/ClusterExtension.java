@@ -7,63 +7,123 @@ import static io.hstream.testing.TestUtils.printBeginFlag;
 import static io.hstream.testing.TestUtils.printEndFlag;
 import static io.hstream.testing.TestUtils.writeLog;
 
-import java.nio.file.Files;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Consumer;
 import org.junit.jupiter.api.extension.AfterEachCallback;
 import org.junit.jupiter.api.extension.BeforeEachCallback;
+import org.junit.jupiter.api.extension.BeforeTestExecutionCallback;
 import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.InvocationInterceptor;
+import org.junit.jupiter.api.extension.ReflectiveInvocationContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.output.OutputFrame;
 
-public class ClusterExtension implements BeforeEachCallback, AfterEachCallback {
+public class ClusterExtension
+    implements BeforeEachCallback,
+        BeforeTestExecutionCallback,
+        AfterEachCallback,
+        InvocationInterceptor {
 
   static final int CLUSTER_SIZE = 3;
   private static final Logger logger = LoggerFactory.getLogger(ClusterExtension.class);
   private final List<GenericContainer<?>> hServers = new ArrayList<>(CLUSTER_SIZE);
   private final List<String> hServerUrls = new ArrayList<>(CLUSTER_SIZE);
+  private final Map<String, Consumer<OutputFrame>> logConsumers = new LinkedHashMap<>();
   private Path dataDir;
   private GenericContainer<?> zk;
   private GenericContainer<?> hstore;
+  private ToxiproxyNetwork toxiproxyNetwork;
+  private ContainerStatsSampler statsSampler;
+  private PhaseTracer tracer;
+  private LogAnalyzer logAnalyzer;
+  private FlightRecording flightRecording;
+  private ChaosScheduler chaosScheduler;
   private String grp;
   private long beginTime;
 
   @Override
   public void beforeEach(ExtensionContext context) throws Exception {
     beginTime = System.currentTimeMillis();
+    tracer = new PhaseTracer();
 
     grp = UUID.randomUUID().toString();
     printBeginFlag(context);
+    ConsumerRuntime.bind(context);
+    MetricsRegistry.resolve(context);
 
-    dataDir = Files.createTempDirectory("hstream");
+    LogSettings logSettings = LogSettings.resolve(context);
+    ContainerLimits containerLimits = ContainerLimits.resolve(context);
+    dataDir = ForkSlot.current().newDataDir();
+    containerLimits.checkDataDir(dataDir);
+    statsSampler = new ContainerStatsSampler();
+    logAnalyzer = LogAnalyzer.resolve(context, statsSampler.beginMillis());
 
+    tracer.phase("zk-start");
     zk = makeZooKeeper();
+    containerLimits.applyTo(zk, ContainerLimits.Kind.ZK);
+    logConsumers.put("zk", logAnalyzer.consumer("zk"));
+    zk.withLogConsumer(logConsumers.get("zk"));
     zk.start();
+    statsSampler.add("zk", zk);
     String zkHost = "127.0.0.1";
     logger.debug("zkHost: " + zkHost);
 
-    hstore = makeHStore(dataDir);
+    tracer.phase("hstore-start");
+    hstore = makeHStore(dataDir, logSettings);
+    containerLimits.applyTo(hstore, ContainerLimits.Kind.STORE);
+    logConsumers.put("hstore", logAnalyzer.consumer("hstore"));
+    hstore.withLogConsumer(logConsumers.get("hstore"));
     hstore.start();
+    statsSampler.add("hstore", hstore);
     String hstoreHost = "127.0.0.1";
     logger.debug("hstoreHost: " + hstoreHost);
 
-    String hServerAddress = "127.0.0.1";
+    Object testInstance = context.getRequiredTestInstance();
+    if (testInstance.getClass().isAnnotationPresent(WithToxiproxy.class)) {
+      tracer.phase("toxiproxy-start");
+      toxiproxyNetwork = ToxiproxyNetwork.start();
+    }
+
     for (int i = 0; i < CLUSTER_SIZE; ++i) {
-      int hServerPort = 6570 + i;
-      int hServerInnerPort = 65000 + i;
+      tracer.phase("hserver-" + i + "-start");
+      String hServerAddress = "127.0.0.1";
+      int hServerPort = ForkSlot.current().hServerPort(i);
+      int hServerInnerPort = ForkSlot.current().hServerInternalPort(i);
+      if (toxiproxyNetwork != null) {
+        hServerAddress =
+            toxiproxyNetwork.proxyHServer(i, hServerAddress, hServerPort, hServerInnerPort);
+      }
       var hServer =
           makeHServer(
-              hServerAddress, hServerPort, hServerInnerPort, dataDir, zkHost, hstoreHost, i);
+              hServerAddress,
+              hServerPort,
+              hServerInnerPort,
+              dataDir,
+              zkHost,
+              hstoreHost,
+              i,
+              logSettings);
+      containerLimits.applyTo(hServer, ContainerLimits.Kind.SERVER, i);
+      logConsumers.put("hserver-" + i, logAnalyzer.consumer("hserver-" + i));
+      hServer.withLogConsumer(logConsumers.get("hserver-" + i));
       hServer.start();
+      statsSampler.add("hserver-" + i, hServer);
       hServers.add(hServer);
       hServerUrls.add(hServerAddress + ":" + hServerPort);
     }
+    tracer.phase("settle");
     Thread.sleep(3000);
+    tracer.end();
+    TestHistory.recordSetup(context, System.currentTimeMillis() - beginTime);
 
-    Object testInstance = context.getRequiredTestInstance();
     testInstance
         .getClass()
         .getMethod("setHStreamDBUrl", String.class)
@@ -82,25 +142,132 @@ public class ClusterExtension implements BeforeEachCallback, AfterEachCallback {
         .getClass()
         .getMethod("setExtensionContext", ExtensionContext.class)
         .invoke(testInstance, context);
+    if (toxiproxyNetwork != null) {
+      testInstance
+          .getClass()
+          .getMethod("setToxiproxyNetwork", ToxiproxyNetwork.class)
+          .invoke(testInstance, toxiproxyNetwork);
+    }
+    Method setChaosScheduler = findSetter(testInstance, "setChaosScheduler", ChaosScheduler.class);
+    if (setChaosScheduler != null) {
+      Map<String, GenericContainer<?>> targets = new LinkedHashMap<>();
+      for (int i = 0; i < hServers.size(); i++) {
+        targets.put("hserver-" + i, hServers.get(i));
+      }
+      targets.put("hstore", hstore);
+      targets.put("zk", zk);
+      chaosScheduler = new ChaosScheduler(targets, logConsumers, statsSampler.beginMillis());
+      setChaosScheduler.invoke(testInstance, chaosScheduler);
+    }
+  }
+
+  private static Method findSetter(Object testInstance, String name, Class<?> type) {
+    try {
+      return testInstance.getClass().getMethod(name, type);
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void beforeTestExecution(ExtensionContext context) throws Exception {
+    Instrumented.instrument(context.getRequiredTestInstance(), MetricsRegistry.of(context));
+    flightRecording = FlightRecording.startIfRequested(context);
+  }
+
+  @Override
+  public void interceptBeforeEachMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-setup", invocation);
+  }
+
+  @Override
+  public void interceptTestMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-body", invocation);
+  }
+
+  @Override
+  public void interceptTestTemplateMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-body", invocation);
+  }
+
+  @Override
+  public void interceptAfterEachMethod(
+      Invocation<Void> invocation,
+      ReflectiveInvocationContext<Method> invocationContext,
+      ExtensionContext extensionContext)
+      throws Throwable {
+    tracer.trace("test-teardown", invocation);
   }
 
   @Override
   public void afterEach(ExtensionContext context) throws Exception {
+    if (chaosScheduler != null) {
+      tracer.phase("chaos-stop");
+      chaosScheduler.close();
+      chaosScheduler.write(context, grp);
+      chaosScheduler = null;
+    }
+    tracer.phase("consumers-stop");
+    ConsumerRuntime.get().stopAll();
+    tracer.phase("metrics-collection");
+    statsSampler.close();
+    statsSampler.write(context, grp);
+    logAnalyzer.write(context, grp);
+    logConsumers.clear();
+    if (flightRecording != null) {
+      tracer.phase("flight-recording");
+      flightRecording.stop(context, grp);
+      flightRecording = null;
+    }
+    MetricsRegistry metricsRegistry = MetricsRegistry.of(context);
+    if (metricsRegistry != null && !metricsRegistry.isEmpty()) {
+      metricsRegistry.report().write(context, grp);
+    }
 
     for (int i = 0; i < hServers.size(); i++) {
       var hServer = hServers.get(i);
+      tracer.phase("hserver-" + i + "-logs");
       writeLog(context, "hserver-" + i, grp, hServer.getLogs());
+      tracer.phase("hserver-" + i + "-stop");
       hServer.close();
     }
 
     hServers.clear();
     hServerUrls.clear();
 
+    tracer.phase("hstore-logs");
     writeLog(context, "hstore", grp, hstore.getLogs());
+    tracer.phase("hstore-stop");
     hstore.close();
+    tracer.phase("zk-logs");
     writeLog(context, "zk", grp, zk.getLogs());
+    tracer.phase("zk-stop");
     zk.close();
+    writeLog(context, "payload-seed", grp, String.valueOf(PayloadGenerator.seed()));
+    writeLog(context, "log-settings", grp, String.valueOf(LogSettings.of(context)));
+    writeLog(context, "container-limits", grp, String.valueOf(ContainerLimits.of(context)));
+
+    if (toxiproxyNetwork != null) {
+      tracer.phase("toxiproxy-logs");
+      writeLog(context, "toxiproxy", grp, toxiproxyNetwork.getLogs());
+      tracer.phase("toxiproxy-stop");
+      toxiproxyNetwork.close();
+      toxiproxyNetwork = null;
+    }
 
+    tracer.write(context, grp);
     logger.info("total time is = {}ms", System.currentTimeMillis() - beginTime);
     printEndFlag(context);
   }
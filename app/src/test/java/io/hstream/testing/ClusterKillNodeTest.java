@@ -14,10 +14,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -46,6 +44,7 @@ public class ClusterKillNodeTest {
   private List<String> hServerUrls;
   private String logMsgPathPrefix;
   private ExtensionContext context;
+  private ChaosScheduler chaosScheduler;
 
   public void setHStreamDBUrl(String hStreamDBUrl) {
     this.hStreamDBUrl = hStreamDBUrl;
@@ -67,6 +66,10 @@ public class ClusterKillNodeTest {
     this.context = context;
   }
 
+  public void setChaosScheduler(ChaosScheduler chaosScheduler) {
+    this.chaosScheduler = chaosScheduler;
+  }
+
   private void terminateHServerWithLogs(int turn, int serverId) throws Exception {
     logger.debug("terminate HServer" + serverId);
     String logs = hServers.get(serverId).getLogs();
@@ -125,25 +128,14 @@ public class ClusterKillNodeTest {
     logger.info("lucky server is " + luckyServer);
     hStreamClient.createStream(streamName);
     var producer = hStreamClient.newProducer().stream(streamName).build();
-    new Thread(
-            () -> {
-              for (int i = 0; i < hServers.size(); ++i) {
-                try {
-                  Thread.sleep(1000);
-                } catch (InterruptedException e) {
-                  throw new RuntimeException(e);
-                }
-                if (i != luckyServer) {
-                  try {
-                    terminateHServerWithLogs(0, i);
-                  } catch (Exception e) {
-                    e.printStackTrace();
-                    throw new RuntimeException(e);
-                  }
-                }
-              }
-            })
-        .start();
+    // kill every server but the lucky one, a second apart
+    StringBuilder script = new StringBuilder();
+    for (int i = 0; i < hServers.size(); ++i) {
+      if (i != luckyServer) {
+        script.append(i + 1).append("s kill hserver-").append(i).append(';');
+      }
+    }
+    chaosScheduler.schedule(ChaosScheduler.script(script.toString())).start();
 
     for (int i = 0; i < hServers.size() * 20; ++i) {
       logger.info("ready for writing record " + i);
@@ -173,7 +165,7 @@ public class ClusterKillNodeTest {
     Collections.shuffle(xs);
 
     Producer producer = hStreamClient.newProducer().stream(stream).build();
-    ArrayList<String> recordIds0 = new ArrayList<>();
+    RecordIdSet recordIds0 = new RecordIdSet(cnt);
 
     for (int i = 0; i < cnt; ++i) {
       recordIds0.add(producer.write(randRawRec()).join());
@@ -184,7 +176,7 @@ public class ClusterKillNodeTest {
     e.set(null);
 
     CountDownLatch countDown = new CountDownLatch(cnt);
-    Set<String> recordIds1 = new HashSet<>();
+    RecordIdSet recordIds1 = new RecordIdSet(cnt);
     Consumer consumer =
         hStreamClient
             .newConsumer()
@@ -214,7 +206,7 @@ public class ClusterKillNodeTest {
     consumer.stopAsync().awaitTerminated();
 
     Assertions.assertNull(e.get());
-    Assertions.assertEquals(new HashSet<>(recordIds0), recordIds1);
+    Assertions.assertEquals(recordIds0, recordIds1);
   }
 
   @Test
@@ -250,7 +242,7 @@ public class ClusterKillNodeTest {
   void testJoinConsumerGroupBeforeAndAfterKillNodes() throws Exception {
     String stream = randStream(hStreamClient);
     String subscription = randSubscription(hStreamClient, stream);
-    Set<String> recordIds0 = new HashSet<>();
+    RecordIdSet recordIds0 = new RecordIdSet(32);
     Producer producer = hStreamClient.newProducer().stream(stream).build();
     for (int i = 0; i < 32; ++i) {
       recordIds0.add(producer.write(randRawRec()).join());
@@ -263,7 +255,7 @@ public class ClusterKillNodeTest {
     terminateHServerWithLogs(0, serverIds.get(1));
     Thread.sleep(2000);
 
-    Set<String> recordIds1 = new HashSet<>();
+    RecordIdSet recordIds1 = new RecordIdSet(32);
     CountDownLatch countDownLatch = new CountDownLatch(32);
     Consumer consumer =
         hStreamClient
@@ -292,8 +284,8 @@ public class ClusterKillNodeTest {
     final int msgCnt = 2000;
 
     Producer producer = hStreamClient.newProducer().stream(stream).build();
-    Set<String> recs0 = new HashSet<>(doProduceAndGatherRid(producer, 1, msgCnt));
-    Set<String> recs1 = new HashSet<>();
+    RecordIdSet recs0 = doProduceAndGatherRid(producer, 1, msgCnt);
+    RecordIdSet recs1 = new RecordIdSet(msgCnt);
     CountDownLatch countDown0 = new CountDownLatch(msgCnt / 2);
 
     Consumer consumer0 =
@@ -0,0 +1,97 @@
+package io.hstream.testing;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/**
+ * A lock-free counterpart of {@link LongHashSet}, for keys added by concurrent callbacks. A key is
+ * added by a compare-and-set on the first free slot of its probe sequence, so adds never block each
+ * other. Keys are never removed and the table never grows: it is sized for the expected number of
+ * keys up front, and adding more than that fails.
+ */
+public class ConcurrentLongHashSet {
+
+  private static final long EMPTY = 0;
+
+  private final AtomicLongArray slots;
+  private final int maxSize;
+  private final AtomicInteger size = new AtomicInteger();
+  private final AtomicBoolean hasEmpty = new AtomicBoolean();
+
+  public ConcurrentLongHashSet(int maxSize) {
+    long capacity = Long.highestOneBit(Math.max(4, maxSize * 2L) * 2 - 1);
+    if (capacity > 1 << 30) {
+      throw new IllegalArgumentException("too many elements: " + maxSize);
+    }
+    this.slots = new AtomicLongArray((int) capacity);
+    this.maxSize = maxSize;
+  }
+
+  public boolean add(long key) {
+    if (key == EMPTY) {
+      return hasEmpty.compareAndSet(false, true) && incrementSize();
+    }
+    int mask = slots.length() - 1;
+    for (int i = (int) LongHashSet.mix(key) & mask; ; i = (i + 1) & mask) {
+      long slot = slots.get(i);
+      if (slot == key) {
+        return false;
+      }
+      if (slot == EMPTY) {
+        if (slots.compareAndSet(i, EMPTY, key)) {
+          return incrementSize();
+        }
+        // lost the slot, the winner may have added the same key
+        if (slots.get(i) == key) {
+          return false;
+        }
+      }
+    }
+  }
+
+  private boolean incrementSize() {
+    if (size.incrementAndGet() > maxSize) {
+      throw new IllegalStateException("ConcurrentLongHashSet is full, maxSize = " + maxSize);
+    }
+    return true;
+  }
+
+  public boolean contains(long key) {
+    if (key == EMPTY) {
+      return hasEmpty.get();
+    }
+    int mask = slots.length() - 1;
+    for (int i = (int) LongHashSet.mix(key) & mask; ; i = (i + 1) & mask) {
+      long slot = slots.get(i);
+      if (slot == key) {
+        return true;
+      }
+      if (slot == EMPTY) {
+        return false;
+      }
+    }
+  }
+
+  public int size() {
+    return size.get();
+  }
+
+  public void forEach(LongConsumer action) {
+    if (hasEmpty.get()) {
+      action.accept(EMPTY);
+    }
+    for (int i = 0; i < slots.length(); i++) {
+      long key = slots.get(i);
+      if (key != EMPTY) {
+        action.accept(key);
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentLongHashSet{size=" + size() + "}";
+  }
+}
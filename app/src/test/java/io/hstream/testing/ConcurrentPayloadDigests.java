@@ -0,0 +1,98 @@
+package io.hstream.testing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The {@link PayloadDigests} of records received by concurrent callbacks, collected without locks.
+ *
+ * <p>Each thread calling {@link #add} appends to a buffer of its own, registered on its first call,
+ * so callbacks share no counter or cache line. A digest is stamped with {@link System#nanoTime},
+ * and {@link #snapshot} merges the buffers by stamp, which gives the digests in the order they were
+ * added whenever the callbacks happen one after another, as those of a single consumer do. A buffer
+ * only counts a digest once it is written, and the digests are only read by {@link #snapshot},
+ * which must happen after the callbacks, e.g. after awaiting the latch they count down.
+ */
+public class ConcurrentPayloadDigests {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<Buffer> threadBuffer =
+      ThreadLocal.withInitial(
+          () -> {
+            Buffer buffer = new Buffer();
+            buffers.add(buffer);
+            return buffer;
+          });
+
+  /** The digests added by one thread, in the order it added them. */
+  private static class Buffer {
+    long[] stamps = new long[INITIAL_CAPACITY];
+    long[] digests = new long[INITIAL_CAPACITY];
+    // written by the owner thread only, after the slot
+    volatile int size;
+
+    void add(long stamp, long digest) {
+      int slot = size;
+      if (slot == digests.length) {
+        stamps = Arrays.copyOf(stamps, slot * 2);
+        digests = Arrays.copyOf(digests, slot * 2);
+      }
+      stamps[slot] = stamp;
+      digests[slot] = digest;
+      size = slot + 1;
+    }
+  }
+
+  public void add(byte[] payload) {
+    addDigest(PayloadDigests.digest(payload));
+  }
+
+  public void addDigest(long digest) {
+    threadBuffer.get().add(System.nanoTime(), digest);
+  }
+
+  /** The number of digests added so far. */
+  public int size() {
+    int size = 0;
+    for (Buffer buffer : buffers) {
+      size += buffer.size;
+    }
+    return size;
+  }
+
+  /** A copy of the digests, in the order of their stamps. */
+  public PayloadDigests snapshot() {
+    List<Buffer> sources = new ArrayList<>(buffers);
+    int[] sizes = new int[sources.size()];
+    int total = 0;
+    for (int b = 0; b < sizes.length; b++) {
+      sizes[b] = sources.get(b).size;
+      total += sizes[b];
+    }
+    PayloadDigests digests = new PayloadDigests(total);
+    // a merge of the buffers, each sorted already: there are as many as callback threads
+    int[] heads = new int[sizes.length];
+    for (int i = 0; i < total; i++) {
+      int next = -1;
+      for (int b = 0; b < heads.length; b++) {
+        if (heads[b] < sizes[b]
+            && (next < 0
+                || sources.get(b).stamps[heads[b]] < sources.get(next).stamps[heads[next]])) {
+          next = b;
+        }
+      }
+      digests.addDigest(sources.get(next).digests[heads[next]++]);
+    }
+    return digests;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentPayloadDigests{size=" + size() + "}";
+  }
+}
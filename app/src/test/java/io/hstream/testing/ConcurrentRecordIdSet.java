@@ -0,0 +1,60 @@
+package io.hstream.testing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The {@link RecordIdSet} of records received by concurrent callbacks, collected without locks:
+ * positions go to one {@link ConcurrentLongHashSet} per shard, each sized for all the records
+ * expected. Compare a {@link #snapshot} once the callbacks are done.
+ */
+public class ConcurrentRecordIdSet {
+
+  private static final ThreadLocal<RecordIdCodec> codecs =
+      ThreadLocal.withInitial(RecordIdCodec::new);
+
+  private final ConcurrentHashMap<Long, ConcurrentLongHashSet> shards = new ConcurrentHashMap<>();
+  private final int maxSize;
+  private final LongAdder size = new LongAdder();
+
+  public ConcurrentRecordIdSet(int maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /** Adds the id, returning whether it was not there yet. */
+  public boolean add(String recordId) {
+    RecordIdCodec codec = codecs.get().parse(recordId);
+    ConcurrentLongHashSet positions = shards.get(codec.shard());
+    if (positions == null) {
+      positions =
+          shards.computeIfAbsent(codec.shard(), shard -> new ConcurrentLongHashSet(maxSize));
+    }
+    if (positions.add(codec.position())) {
+      size.increment();
+      return true;
+    }
+    return false;
+  }
+
+  public boolean contains(String recordId) {
+    RecordIdCodec codec = codecs.get().parse(recordId);
+    ConcurrentLongHashSet positions = shards.get(codec.shard());
+    return positions != null && positions.contains(codec.position());
+  }
+
+  public int size() {
+    return size.intValue();
+  }
+
+  /** A copy of the ids added so far. */
+  public RecordIdSet snapshot() {
+    RecordIdSet ids = new RecordIdSet(size());
+    shards.forEach((shard, positions) -> positions.forEach(position -> ids.add(shard, position)));
+    return ids;
+  }
+
+  @Override
+  public String toString() {
+    return "ConcurrentRecordIdSet{size=" + size() + "}";
+  }
+}
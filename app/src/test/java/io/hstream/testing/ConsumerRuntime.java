@@ -0,0 +1,189 @@
+package io.hstream.testing;
+
+import com.google.common.util.concurrent.Service;
+import io.hstream.Consumer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Starts and stops the consumers of the suite on one bounded executor, which also runs their
+ * listeners, instead of a thread pool per consumer.
+ *
+ * <p>Lifecycle transitions are driven by listeners rather than by blocking {@code awaitRunning} and
+ * {@code awaitTerminated} calls, so any number of consumers start and stop in parallel. Consumers
+ * still alive when a test ends are stopped by {@link #stopAll}, which the extensions call before
+ * the cluster goes away, and the executor is shut down with the root extension context.
+ */
+public class ConsumerRuntime implements ExtensionContext.Store.CloseableResource {
+
+  private static final Logger logger = LoggerFactory.getLogger(ConsumerRuntime.class);
+  private static final Duration STOP_TIMEOUT = Duration.ofSeconds(30);
+  private static ConsumerRuntime instance;
+
+  private final ThreadPoolExecutor executor;
+  private final Map<Consumer, Tracked> consumers = new ConcurrentHashMap<>();
+
+  private ConsumerRuntime(int threads) {
+    AtomicInteger count = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+              Thread thread = new Thread(r, "consumer-runtime-" + count.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** The runtime of the suite, created on first use. */
+  public static synchronized ConsumerRuntime get() {
+    if (instance == null || instance.executor.isShutdown()) {
+      instance = new ConsumerRuntime(Math.max(4, Runtime.getRuntime().availableProcessors()));
+    }
+    return instance;
+  }
+
+  /** Shuts the runtime down with the root context, i.e. once the whole suite has run. */
+  public static void bind(ExtensionContext context) {
+    context
+        .getRoot()
+        .getStore(ExtensionContext.Namespace.GLOBAL)
+        .getOrComputeIfAbsent(ConsumerRuntime.class, k -> get(), ConsumerRuntime.class);
+  }
+
+  /** Runs listeners and other short callbacks, never blocking calls. */
+  public Executor executor() {
+    return executor;
+  }
+
+  /** Starts the consumer, the returned future completes once it is running. */
+  public CompletableFuture<Void> start(Consumer consumer) {
+    Tracked tracked = track(consumer);
+    consumer.startAsync();
+    return tracked.running;
+  }
+
+  /** Starts all the consumers at once, waiting until every one of them is running. */
+  public void startAll(Collection<? extends Consumer> consumers) {
+    List<CompletableFuture<Void>> futures = new ArrayList<>(consumers.size());
+    for (Consumer consumer : consumers) {
+      futures.add(start(consumer));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+  }
+
+  /**
+   * Stops the consumer, the returned future completes once it is terminated, or failed. Consumers
+   * which were not started by this runtime are stopped as well.
+   */
+  public CompletableFuture<Void> stop(Consumer consumer) {
+    Tracked tracked = track(consumer);
+    consumer.stopAsync();
+    return tracked.stopped;
+  }
+
+  private Tracked track(Consumer consumer) {
+    Tracked tracked =
+        consumers.computeIfAbsent(
+            consumer,
+            c -> {
+              Tracked t = new Tracked(c);
+              c.addListener(t, executor);
+              return t;
+            });
+    // listeners added after the consumer stopped are never called
+    Service.State state = consumer.state();
+    if (state == Service.State.TERMINATED || state == Service.State.FAILED) {
+      tracked.terminated(state);
+    }
+    return tracked;
+  }
+
+  /** Stops all the consumers at once, waiting until every one of them is terminated. */
+  public void stopAll(Collection<? extends Consumer> consumers) {
+    List<CompletableFuture<Void>> futures = new ArrayList<>(consumers.size());
+    for (Consumer consumer : consumers) {
+      futures.add(stop(consumer));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+  }
+
+  /** Stops every consumer still alive, e.g. those of a test which failed or forgot them. */
+  public void stopAll() throws InterruptedException {
+    List<CompletableFuture<Void>> futures = new ArrayList<>();
+    for (Tracked tracked : consumers.values()) {
+      tracked.consumer.stopAsync();
+      futures.add(tracked.stopped);
+    }
+    if (futures.isEmpty()) {
+      return;
+    }
+    logger.info("stopping {} consumers left running", futures.size());
+    try {
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+          .get(STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      logger.warn("{} consumers did not stop within {}", consumers.size(), STOP_TIMEOUT);
+    } catch (Exception e) {
+      logger.warn("failed to stop consumers", e);
+    }
+  }
+
+  @Override
+  public void close() throws Throwable {
+    stopAll();
+    executor.shutdown();
+    if (!executor.awaitTermination(STOP_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+
+  private class Tracked extends Service.Listener {
+    private final Consumer consumer;
+    private final CompletableFuture<Void> running = new CompletableFuture<>();
+    private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+    Tracked(Consumer consumer) {
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void running() {
+      running.complete(null);
+    }
+
+    @Override
+    public void terminated(Service.@NotNull State from) {
+      consumers.remove(consumer, this);
+      running.completeExceptionally(new IllegalStateException("consumer stopped while " + from));
+      stopped.complete(null);
+    }
+
+    @Override
+    public void failed(Service.@NotNull State from, @NotNull Throwable failure) {
+      consumers.remove(consumer, this);
+      running.completeExceptionally(failure);
+      stopped.complete(null);
+    }
+  }
+}
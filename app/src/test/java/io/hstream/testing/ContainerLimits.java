@@ -0,0 +1,359 @@
+package io.hstream.testing;
+
+import com.github.dockerjava.api.model.BlkioRateDevice;
+import com.github.dockerjava.api.model.HostConfig;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * The cgroup limits of the containers of a test: CPU quota, CPU pinning, memory and block I/O
+ * bandwidth, so servers can be profiled on the resources of a production node, and the numbers
+ * don't move with whatever else runs on the CI host. The limits are written in the header of every
+ * {@link BenchmarkReport}.
+ *
+ * <p>The limits come from, by increasing precedence: the {@link ResourceLimits} of the test class;
+ * those of the test method; and {@code -Dlimits.<kind>.<limit>}, with kind {@code server}, {@code
+ * store} or {@code zk} and limit {@code cpus}, {@code cpuset}, {@code memory}, {@code read-bps} or
+ * {@code write-bps}, and {@code -Dlimits.blkio-device}. A server cpuset of several sets separated
+ * by {@code ;} pins each HServer to the set of its id, modulo their number.
+ *
+ * <p>The cpusets are those of the first {@link ForkSlot}: the other slots pin their containers to
+ * the same CPUs shifted by the span of all the cpusets times the slot index, so parallel forks
+ * don't share the cores meant to isolate them.
+ */
+public class ContainerLimits {
+
+  private static final ExtensionContext.Namespace NAMESPACE =
+      ExtensionContext.Namespace.create(ContainerLimits.class);
+  private static final long CPU_PERIOD_MICROS = 100_000;
+  private static final Path SYS_DEV_BLOCK = Paths.get("/sys/dev/block");
+
+  public enum Kind {
+    SERVER,
+    STORE,
+    ZK
+  }
+
+  /** The limits of a kind of container, null or 0 when unlimited. */
+  static class Limit {
+    double cpus;
+    String cpuset;
+    Long memory;
+    Long readBps;
+    Long writeBps;
+
+    boolean isEmpty() {
+      return cpus == 0 && cpuset == null && memory == null && readBps == null && writeBps == null;
+    }
+
+    @Override
+    public String toString() {
+      List<String> limits = new ArrayList<>();
+      if (cpus > 0) {
+        limits.add(String.format(Locale.ROOT, "cpus=%.2f", cpus));
+      }
+      if (cpuset != null) {
+        limits.add("cpuset=" + cpuset);
+      }
+      if (memory != null) {
+        limits.add("memory=" + memory);
+      }
+      if (readBps != null) {
+        limits.add("read-bps=" + readBps);
+      }
+      if (writeBps != null) {
+        limits.add("write-bps=" + writeBps);
+      }
+      return limits.isEmpty() ? "unlimited" : String.join(",", limits);
+    }
+  }
+
+  private final Map<Kind, Limit> limits = new EnumMap<>(Kind.class);
+  private String blkioDevice;
+
+  ContainerLimits() {
+    for (Kind kind : Kind.values()) {
+      limits.put(kind, new Limit());
+    }
+  }
+
+  /** The limits of the test, which are also kept in its store for {@link #of}. */
+  public static ContainerLimits resolve(ExtensionContext context) {
+    ContainerLimits containerLimits = new ContainerLimits();
+    containerLimits.merge(context.getRequiredTestClass().getAnnotation(ResourceLimits.class));
+    Method method = context.getTestMethod().orElse(null);
+    if (method != null) {
+      containerLimits.merge(method.getAnnotation(ResourceLimits.class));
+    }
+    containerLimits.blkioDevice =
+        System.getProperty("limits.blkio-device", containerLimits.blkioDevice);
+    for (Kind kind : Kind.values()) {
+      Limit limit = containerLimits.limits.get(kind);
+      String prefix = "limits." + kind.name().toLowerCase(Locale.ROOT) + ".";
+      String cpus = System.getProperty(prefix + "cpus");
+      limit.cpus = cpus != null ? Double.parseDouble(cpus) : limit.cpus;
+      limit.cpuset = System.getProperty(prefix + "cpuset", limit.cpuset);
+      limit.memory = parseSize(System.getProperty(prefix + "memory"), limit.memory);
+      limit.readBps = parseSize(System.getProperty(prefix + "read-bps"), limit.readBps);
+      limit.writeBps = parseSize(System.getProperty(prefix + "write-bps"), limit.writeBps);
+      if ((limit.readBps != null || limit.writeBps != null)
+          && containerLimits.blkioDevice == null) {
+        throw new IllegalArgumentException(
+            "blkio limits of " + kind + " need a device, see ResourceLimits.blkioDevice");
+      }
+    }
+    containerLimits.shiftCpusets(ForkSlot.current().index());
+    context.getStore(NAMESPACE).put(ContainerLimits.class, containerLimits);
+    return containerLimits;
+  }
+
+  /** The limits the extension resolved for the test, null outside of a cluster test. */
+  public static ContainerLimits of(ExtensionContext context) {
+    return context.getStore(NAMESPACE).get(ContainerLimits.class, ContainerLimits.class);
+  }
+
+  private void merge(ResourceLimits annotation) {
+    if (annotation == null) {
+      return;
+    }
+    merge(limits.get(Kind.SERVER), annotation.server());
+    merge(limits.get(Kind.STORE), annotation.store());
+    merge(limits.get(Kind.ZK), annotation.zk());
+    if (!annotation.blkioDevice().isEmpty()) {
+      blkioDevice = annotation.blkioDevice();
+    }
+  }
+
+  private static void merge(Limit limit, ResourceLimits.Limit annotation) {
+    limit.cpus = annotation.cpus() > 0 ? annotation.cpus() : limit.cpus;
+    limit.cpuset = annotation.cpuset().isEmpty() ? limit.cpuset : annotation.cpuset();
+    limit.memory = parseSize(annotation.memory(), limit.memory);
+    limit.readBps = parseSize(annotation.readBps(), limit.readBps);
+    limit.writeBps = parseSize(annotation.writeBps(), limit.writeBps);
+  }
+
+  Limit limit(Kind kind) {
+    return limits.get(kind);
+  }
+
+  private void shiftCpusets(int slot) {
+    shiftCpusets(slot, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Moves the cpusets to the CPUs of the slot, after those of the slots before it, on a host with
+   * {@code available} CPUs.
+   */
+  void shiftCpusets(int slot, int available) {
+    int lowest = Integer.MAX_VALUE;
+    int highest = -1;
+    for (Limit limit : limits.values()) {
+      if (limit.cpuset != null) {
+        for (String range : limit.cpuset.split("[,;]")) {
+          String[] bounds = range.trim().split("-");
+          lowest = Math.min(lowest, Integer.parseInt(bounds[0]));
+          highest = Math.max(highest, Integer.parseInt(bounds[bounds.length - 1]));
+        }
+      }
+    }
+    if (slot == 0 || highest < 0) {
+      return;
+    }
+    int span = highest - lowest + 1;
+    if (highest + slot * span >= available) {
+      throw new IllegalStateException(
+          String.format(
+              "fork slot %d would pin its containers to CPUs up to %d of %d, run at most %d forks"
+                  + " with these cpusets, e.g. -PtestForks=1",
+              slot, highest + slot * span, available, (available - lowest) / span));
+    }
+    for (Limit limit : limits.values()) {
+      if (limit.cpuset != null) {
+        limit.cpuset = shift(limit.cpuset, slot * span);
+      }
+    }
+  }
+
+  /** The cpuset, e.g. {@code 0-3,6} or {@code 0-1;2-3}, with every CPU moved by {@code shift}. */
+  static String shift(String cpuset, int shift) {
+    List<String> sets = new ArrayList<>();
+    for (String set : cpuset.split(";")) {
+      List<String> ranges = new ArrayList<>();
+      for (String range : set.split(",")) {
+        List<String> bounds = new ArrayList<>();
+        for (String bound : range.trim().split("-")) {
+          bounds.add(String.valueOf(Integer.parseInt(bound) + shift));
+        }
+        ranges.add(String.join("-", bounds));
+      }
+      sets.add(String.join(",", ranges));
+    }
+    return String.join(";", sets);
+  }
+
+  /** The set of a cpuset of several separated by {@code ;} for the container {@code index}. */
+  static String cpusetOf(String cpuset, int index) {
+    String[] sets = cpuset.split(";");
+    return sets[index % sets.length].trim();
+  }
+
+  /**
+   * Fails if the blkio limits would not apply to HStore writing to {@code dataDir}: the limits only
+   * hold for I/O to {@link ResourceLimits#blkioDevice}, and never for tmpfs. The device of the data
+   * directory and the limited one are compared by their major:minor numbers, the limited one being
+   * either the device of the filesystem itself or one it is on, see {@link #devicesUnder}.
+   */
+  public void checkDataDir(Path dataDir) throws IOException {
+    Limit store = limits.get(Kind.STORE);
+    if (store.readBps == null && store.writeBps == null) {
+      return;
+    }
+    FileStore fileStore = Files.getFileStore(dataDir);
+    String device = majorMinor((Long) Files.getAttribute(dataDir, "unix:dev"));
+    String limited = majorMinor((Long) Files.getAttribute(Paths.get(blkioDevice), "unix:rdev"));
+    Set<String> devices = devicesUnder(SYS_DEV_BLOCK, device);
+    if (fileStore.type().equals("tmpfs") || !devices.contains(limited)) {
+      throw new IllegalArgumentException(
+          String.format(
+              "the data directory %s is on %s (%s, devices %s), not on the blkio device %s (%s):"
+                  + " move it there with -Djava.io.tmpdir",
+              dataDir, fileStore.name(), fileStore.type(), devices, blkioDevice, limited));
+    }
+  }
+
+  /** The {@code major:minor} of a Linux {@code dev_t}, as {@code glibc}'s major() and minor(). */
+  static String majorMinor(long dev) {
+    long major = ((dev >>> 8) & 0xfff) | ((dev >>> 32) & 0xfffff000L);
+    long minor = (dev & 0xff) | ((dev >>> 12) & 0xffffff00L);
+    return major + ":" + minor;
+  }
+
+  /**
+   * The devices I/O to a filesystem on {@code device} goes to, as {@code major:minor}: the device
+   * itself, the disk of a partition, and the devices a device-mapper or md device is made of, e.g.
+   * the LVM volumes, down to their disks. {@code sysDevBlock} is {@code /sys/dev/block}; a device
+   * without an entry there, e.g. that of tmpfs, is on no other.
+   */
+  static Set<String> devicesUnder(Path sysDevBlock, String device) throws IOException {
+    Set<String> devices = new LinkedHashSet<>();
+    addDevicesUnder(sysDevBlock, device, devices);
+    return devices;
+  }
+
+  private static void addDevicesUnder(Path sysDevBlock, String device, Set<String> devices)
+      throws IOException {
+    Path entry = sysDevBlock.resolve(device);
+    if (!devices.add(device) || !Files.exists(entry)) {
+      return;
+    }
+    Path sysDevice = entry.toRealPath();
+    if (Files.exists(sysDevice.resolve("partition"))) {
+      addDevicesUnder(sysDevBlock, readDev(sysDevice.getParent()), devices);
+    }
+    Path slaves = sysDevice.resolve("slaves");
+    if (Files.isDirectory(slaves)) {
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(slaves)) {
+        for (Path slave : entries) {
+          addDevicesUnder(sysDevBlock, readDev(slave.toRealPath()), devices);
+        }
+      }
+    }
+  }
+
+  private static String readDev(Path sysDevice) throws IOException {
+    return new String(Files.readAllBytes(sysDevice.resolve("dev")), StandardCharsets.US_ASCII)
+        .trim();
+  }
+
+  /** Parses {@code 512}, {@code 64k}, {@code 512m} or {@code 4g}, the default if null or empty. */
+  static Long parseSize(String size, Long defaultSize) {
+    if (size == null || size.isEmpty()) {
+      return defaultSize;
+    }
+    String digits = size.toLowerCase(Locale.ROOT);
+    long unit = 1;
+    switch (digits.charAt(digits.length() - 1)) {
+      case 'k':
+        unit = 1L << 10;
+        break;
+      case 'm':
+        unit = 1L << 20;
+        break;
+      case 'g':
+        unit = 1L << 30;
+        break;
+      default:
+    }
+    if (unit > 1) {
+      digits = digits.substring(0, digits.length() - 1);
+    }
+    return Long.parseLong(digits) * unit;
+  }
+
+  /** Applies the limits of the kind to the container, which must not be started yet. */
+  public void applyTo(GenericContainer<?> container, Kind kind) {
+    applyTo(container, kind, 0);
+  }
+
+  /**
+   * Applies the limits of the kind to container {@code index} of the kind, e.g. the HServer of that
+   * id, which must not be started yet.
+   */
+  public void applyTo(GenericContainer<?> container, Kind kind, int index) {
+    Limit limit = limits.get(kind);
+    if (limit.isEmpty()) {
+      return;
+    }
+    container.withCreateContainerCmdModifier(
+        cmd -> {
+          HostConfig hostConfig = cmd.getHostConfig();
+          if (limit.cpus > 0) {
+            hostConfig
+                .withCpuPeriod(CPU_PERIOD_MICROS)
+                .withCpuQuota((long) (limit.cpus * CPU_PERIOD_MICROS));
+          }
+          if (limit.cpuset != null) {
+            hostConfig.withCpusetCpus(cpusetOf(limit.cpuset, index));
+          }
+          if (limit.memory != null) {
+            // the same swap limit as memory: no swap, which would hide the limit
+            hostConfig.withMemory(limit.memory).withMemorySwap(limit.memory);
+          }
+          if (limit.readBps != null) {
+            hostConfig.withBlkioDeviceReadBps(
+                List.of(new BlkioRateDevice().withPath(blkioDevice).withRate(limit.readBps)));
+          }
+          if (limit.writeBps != null) {
+            hostConfig.withBlkioDeviceWriteBps(
+                List.of(new BlkioRateDevice().withPath(blkioDevice).withRate(limit.writeBps)));
+          }
+        });
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Kind kind : Kind.values()) {
+      if (sb.length() > 0) {
+        sb.append(' ');
+      }
+      sb.append(kind.name().toLowerCase(Locale.ROOT)).append("-limits=").append(limits.get(kind));
+    }
+    return sb.toString();
+  }
+}
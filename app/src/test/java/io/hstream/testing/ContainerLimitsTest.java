@@ -0,0 +1,112 @@
+package io.hstream.testing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** The sizes, cpusets and block devices of {@link ContainerLimits}. */
+public class ContainerLimitsTest {
+
+  @Test
+  void testParseSize() {
+    Assertions.assertEquals(512L, ContainerLimits.parseSize("512", null));
+    Assertions.assertEquals(64L << 10, ContainerLimits.parseSize("64k", null));
+    Assertions.assertEquals(512L << 20, ContainerLimits.parseSize("512M", null));
+    Assertions.assertEquals(4L << 30, ContainerLimits.parseSize("4g", null));
+    Assertions.assertEquals(7L, ContainerLimits.parseSize("", 7L));
+    Assertions.assertNull(ContainerLimits.parseSize(null, null));
+    Assertions.assertThrows(NumberFormatException.class, () -> ContainerLimits.parseSize("4t", 0L));
+  }
+
+  @Test
+  void testShift() {
+    Assertions.assertEquals("4-7,10", ContainerLimits.shift("0-3,6", 4));
+    Assertions.assertEquals("6-7;8-9", ContainerLimits.shift("0-1;2-3", 6));
+    Assertions.assertEquals("0-1;2-3", ContainerLimits.shift("0-1; 2-3", 0));
+  }
+
+  @Test
+  void testCpusetOf() {
+    Assertions.assertEquals("0-3", ContainerLimits.cpusetOf("0-3", 5));
+    Assertions.assertEquals("0-1", ContainerLimits.cpusetOf("0-1;2-3", 0));
+    Assertions.assertEquals("2-3", ContainerLimits.cpusetOf("0-1; 2-3", 1));
+    Assertions.assertEquals("0-1", ContainerLimits.cpusetOf("0-1;2-3", 2));
+  }
+
+  private static ContainerLimits pinned() {
+    ContainerLimits limits = new ContainerLimits();
+    limits.limit(ContainerLimits.Kind.SERVER).cpuset = "0-1;2-3";
+    limits.limit(ContainerLimits.Kind.STORE).cpuset = "4";
+    return limits;
+  }
+
+  @Test
+  void testSlotsShiftBySpanOfAllCpusets() {
+    ContainerLimits first = pinned();
+    first.shiftCpusets(0, 16);
+    Assertions.assertEquals("0-1;2-3", first.limit(ContainerLimits.Kind.SERVER).cpuset);
+
+    // the cpusets span CPUs 0 to 4, so slot 2 starts at CPU 10
+    ContainerLimits third = pinned();
+    third.shiftCpusets(2, 16);
+    Assertions.assertEquals("10-11;12-13", third.limit(ContainerLimits.Kind.SERVER).cpuset);
+    Assertions.assertEquals("14", third.limit(ContainerLimits.Kind.STORE).cpuset);
+    Assertions.assertNull(third.limit(ContainerLimits.Kind.ZK).cpuset);
+  }
+
+  @Test
+  void testSlotsBeyondTheCpusFail() {
+    ContainerLimits limits = pinned();
+    limits.shiftCpusets(2, 15);
+    Assertions.assertThrows(IllegalStateException.class, () -> pinned().shiftCpusets(3, 16));
+    Assertions.assertThrows(IllegalStateException.class, () -> pinned().shiftCpusets(2, 14));
+  }
+
+  @Test
+  void testMajorMinor() {
+    Assertions.assertEquals("8:1", ContainerLimits.majorMinor(0x801));
+    Assertions.assertEquals("259:3", ContainerLimits.majorMinor(0x10303));
+    // the high bits of glibc's makedev(4096, 256)
+    Assertions.assertEquals("4096:256", ContainerLimits.majorMinor((4096L << 32) | (256L << 12)));
+  }
+
+  private static Path device(Path dir, String majorMinor) throws IOException {
+    Files.createDirectories(dir);
+    Files.write(dir.resolve("dev"), (majorMinor + "\n").getBytes(StandardCharsets.US_ASCII));
+    return dir;
+  }
+
+  @Test
+  void testDevicesUnder(@TempDir Path sys) throws IOException {
+    Path devices = sys.resolve("devices");
+    Path sda = device(devices.resolve("pci0000:00/block/sda"), "8:0");
+    Path sda2 = device(sda.resolve("sda2"), "8:2");
+    Files.createFile(sda2.resolve("partition"));
+    Path sdaa = device(devices.resolve("pci0000:00/block/sdaa"), "65:160");
+    Path sdaa1 = device(sdaa.resolve("sdaa1"), "65:161");
+    Files.createFile(sdaa1.resolve("partition"));
+    Path dm = device(devices.resolve("virtual/block/dm-0"), "253:0");
+    Files.createDirectories(dm.resolve("slaves"));
+    Files.createSymbolicLink(dm.resolve("slaves/sda2"), sda2);
+
+    Path devBlock = Files.createDirectories(sys.resolve("dev/block"));
+    Files.createSymbolicLink(devBlock.resolve("8:0"), sda);
+    Files.createSymbolicLink(devBlock.resolve("8:2"), sda2);
+    Files.createSymbolicLink(devBlock.resolve("65:161"), sdaa1);
+    Files.createSymbolicLink(devBlock.resolve("253:0"), dm);
+
+    Assertions.assertEquals(Set.of("8:2", "8:0"), ContainerLimits.devicesUnder(devBlock, "8:2"));
+    Assertions.assertEquals(
+        Set.of("253:0", "8:2", "8:0"), ContainerLimits.devicesUnder(devBlock, "253:0"));
+    // a name prefix is not a disk: sdaa1 is not on sda
+    Assertions.assertEquals(
+        Set.of("65:161", "65:160"), ContainerLimits.devicesUnder(devBlock, "65:161"));
+    // tmpfs and the like have no block device
+    Assertions.assertEquals(Set.of("0:42"), ContainerLimits.devicesUnder(devBlock, "0:42"));
+  }
+}
@@ -0,0 +1,293 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.writeLog;
+
+import com.github.dockerjava.api.async.ResultCallback;
+import com.github.dockerjava.api.model.BlkioStatEntry;
+import com.github.dockerjava.api.model.CpuStatsConfig;
+import com.github.dockerjava.api.model.Statistics;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Samples the resource usage of the containers of a test, and of the client JVM, into one CSV time
+ * series per container, written next to the container logs as {@code stats-<name>.csv}.
+ *
+ * <p>Docker streams the stats of a container about once per second, so intervals shorter than that
+ * ({@code -Dstats.interval.ms}, 1000 by default) get a sample per second. The containers run with
+ * host networking, for which Docker has no network counters per container: they all share the
+ * interfaces of the host. So the network is sampled once, into {@code stats-host-network.csv}, from
+ * the {@code /proc/net/dev} of a running container, which is that of the host: the bytes received
+ * and sent on all interfaces since the first sample, the loopback included, which the traffic
+ * between the client and the cluster goes through.
+ */
+public class ContainerStatsSampler implements AutoCloseable {
+
+  public static final long INTERVAL_MILLIS = Long.getLong("stats.interval.ms", 1000);
+  static final String HEADER =
+      "time_ms,cpu_percent,memory_bytes,memory_limit_bytes,blkio_read_bytes,blkio_write_bytes\n";
+  static final String NETWORK_HEADER = "time_ms,net_rx_bytes,net_tx_bytes\n";
+  static final String NETWORK = "host-network";
+
+  private static final Logger logger = LoggerFactory.getLogger(ContainerStatsSampler.class);
+  private static final com.sun.management.OperatingSystemMXBean osMXBean =
+      (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+  private final long begin = System.currentTimeMillis();
+  private final Map<String, Series> series = new ConcurrentSkipListMap<>();
+  private final Map<String, GenericContainer<?>> containers = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "stats-sampler");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private long lastCpuNanos = osMXBean.getProcessCpuTime();
+  private long lastSampleNanos = System.nanoTime();
+  // the counters of the first network sample, which the series starts from
+  private long[] networkBase;
+
+  private class Series {
+    private final StringBuilder csv;
+    private long lastSampleMillis = Long.MIN_VALUE;
+    private String containerId;
+    private ResultCallback.Adapter<Statistics> stream;
+    private volatile boolean ended;
+
+    Series(String header) {
+      csv = new StringBuilder(header);
+    }
+
+    synchronized void append(long timeMillis, String row) {
+      if (timeMillis - lastSampleMillis < INTERVAL_MILLIS) {
+        return;
+      }
+      lastSampleMillis = timeMillis;
+      csv.append(timeMillis).append(',').append(row).append('\n');
+    }
+
+    synchronized String csv() {
+      return csv.toString();
+    }
+  }
+
+  public ContainerStatsSampler() {
+    series.put("client", new Series(HEADER));
+    series.put(NETWORK, new Series(NETWORK_HEADER));
+    scheduler.scheduleAtFixedRate(this::tick, 0, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /** The time the series start at, in milliseconds since the epoch. */
+  public long beginMillis() {
+    return begin;
+  }
+
+  /** Samples the container from now on, also after it is restarted. */
+  public void add(String name, GenericContainer<?> container) {
+    series.put(name, new Series(HEADER));
+    containers.put(name, container);
+    scheduler.execute(this::tick);
+  }
+
+  private void tick() {
+    try {
+      sampleClient();
+      containers.forEach(this::attach);
+      sampleNetwork();
+    } catch (Throwable e) {
+      logger.warn("failed to sample stats", e);
+    }
+  }
+
+  private void sampleClient() {
+    long cpuNanos = osMXBean.getProcessCpuTime();
+    long now = System.nanoTime();
+    double cpuPercent = 100.0 * (cpuNanos - lastCpuNanos) / Math.max(1, now - lastSampleNanos);
+    lastCpuNanos = cpuNanos;
+    lastSampleNanos = now;
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    series
+        .get("client")
+        .append(
+            System.currentTimeMillis() - begin,
+            String.format(Locale.ROOT, "%.1f,%d,%d,,", cpuPercent, heap.getUsed(), heap.getMax()));
+  }
+
+  private void sampleNetwork() throws IOException, InterruptedException {
+    GenericContainer<?> container =
+        containers.values().stream().filter(GenericContainer::isRunning).findFirst().orElse(null);
+    if (container == null) {
+      return;
+    }
+    var result = container.execInContainer("cat", "/proc/net/dev");
+    if (result.getExitCode() != 0) {
+      logger.debug("failed to read /proc/net/dev: {}", result.getStderr());
+      return;
+    }
+    long[] totals = netDevTotals(result.getStdout());
+    if (networkBase == null) {
+      networkBase = totals;
+    }
+    series
+        .get(NETWORK)
+        .append(
+            System.currentTimeMillis() - begin,
+            (totals[0] - networkBase[0]) + "," + (totals[1] - networkBase[1]));
+  }
+
+  /** The bytes received and sent on all the interfaces of a {@code /proc/net/dev}. */
+  static long[] netDevTotals(String netDev) {
+    long[] totals = new long[2];
+    for (String line : netDev.split("\n")) {
+      int colon = line.indexOf(':');
+      if (colon < 0) {
+        // the two header lines
+        continue;
+      }
+      String[] fields = line.substring(colon + 1).trim().split("\\s+");
+      // 8 receive fields, bytes first, then the transmit ones
+      if (fields.length >= 9) {
+        totals[0] += Long.parseLong(fields[0]);
+        totals[1] += Long.parseLong(fields[8]);
+      }
+    }
+    return totals;
+  }
+
+  /**
+   * Streams the stats of the current container, which is a new one after a restart, or the same one
+   * started again after a kill (see {@link ChaosScheduler}), whose stream has ended.
+   */
+  private void attach(String name, GenericContainer<?> container) {
+    Series s = series.get(name);
+    String containerId = container.getContainerId();
+    if (containerId == null
+        || (containerId.equals(s.containerId) && !s.ended)
+        || !container.isRunning()) {
+      return;
+    }
+    closeStream(s);
+    s.containerId = containerId;
+    s.ended = false;
+    s.stream =
+        DockerClientFactory.instance()
+            .client()
+            .statsCmd(containerId)
+            .exec(
+                new ResultCallback.Adapter<>() {
+                  @Override
+                  public void onNext(Statistics stats) {
+                    s.append(System.currentTimeMillis() - begin, row(stats));
+                  }
+
+                  @Override
+                  public void onComplete() {
+                    s.ended = true;
+                    super.onComplete();
+                  }
+
+                  @Override
+                  public void onError(Throwable throwable) {
+                    s.ended = true;
+                    super.onError(throwable);
+                  }
+                });
+  }
+
+  static String row(Statistics stats) {
+    StringBuilder row = new StringBuilder();
+    row.append(
+        String.format(
+            Locale.ROOT, "%.1f", cpuPercent(stats.getCpuStats(), stats.getPreCpuStats())));
+    row.append(',');
+    if (stats.getMemoryStats() != null) {
+      row.append(orEmpty(stats.getMemoryStats().getUsage()));
+      row.append(',').append(orEmpty(stats.getMemoryStats().getLimit()));
+    } else {
+      row.append(',');
+    }
+    long read = 0;
+    long write = 0;
+    List<BlkioStatEntry> entries =
+        stats.getBlkioStats() == null ? null : stats.getBlkioStats().getIoServiceBytesRecursive();
+    if (entries != null) {
+      for (BlkioStatEntry entry : entries) {
+        long value = entry.getValue() == null ? 0 : entry.getValue();
+        if ("read".equalsIgnoreCase(entry.getOp())) {
+          read += value;
+        } else if ("write".equalsIgnoreCase(entry.getOp())) {
+          write += value;
+        }
+      }
+    }
+    row.append(',').append(read).append(',').append(write);
+    return row.toString();
+  }
+
+  /** As {@code docker stats}: 100% per fully used core. */
+  static double cpuPercent(CpuStatsConfig cpu, CpuStatsConfig preCpu) {
+    if (cpu == null
+        || preCpu == null
+        || cpu.getCpuUsage() == null
+        || preCpu.getCpuUsage() == null
+        || cpu.getSystemCpuUsage() == null
+        || preCpu.getSystemCpuUsage() == null) {
+      return 0;
+    }
+    long cpuDelta = cpu.getCpuUsage().getTotalUsage() - preCpu.getCpuUsage().getTotalUsage();
+    long systemDelta = cpu.getSystemCpuUsage() - preCpu.getSystemCpuUsage();
+    if (systemDelta <= 0 || cpuDelta < 0) {
+      return 0;
+    }
+    long cores =
+        cpu.getOnlineCpus() != null
+            ? cpu.getOnlineCpus()
+            : cpu.getCpuUsage().getPercpuUsage() != null
+                ? cpu.getCpuUsage().getPercpuUsage().size()
+                : 1;
+    return 100.0 * cpuDelta / systemDelta * cores;
+  }
+
+  private static String orEmpty(Long value) {
+    return value == null ? "" : value.toString();
+  }
+
+  private static void closeStream(Series s) {
+    if (s.stream != null) {
+      try {
+        s.stream.close();
+      } catch (IOException e) {
+        logger.warn("failed to close the stats of {}", s.containerId, e);
+      }
+      s.stream = null;
+    }
+  }
+
+  /** Stops sampling, call before the containers are closed. */
+  @Override
+  public void close() throws InterruptedException {
+    scheduler.shutdown();
+    scheduler.awaitTermination(INTERVAL_MILLIS + 5000, TimeUnit.MILLISECONDS);
+    series.values().forEach(ContainerStatsSampler::closeStream);
+  }
+
+  public void write(ExtensionContext context, String grp) throws Exception {
+    for (var entry : series.entrySet()) {
+      writeLog(context, "stats-" + entry.getKey() + ".csv", grp, entry.getValue().csv());
+    }
+  }
+}
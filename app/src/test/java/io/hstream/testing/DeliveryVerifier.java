@@ -0,0 +1,251 @@
+package io.hstream.testing;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.Assertions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks deliveries as they happen, in constant memory.
+ *
+ * <p>Producers {@link #stamp} every payload with their id and a sequence number starting at 0. For
+ * each producer the verifier keeps a watermark, below which every record was delivered, and a
+ * bitmap of the records delivered out of order in the window above it. A record further than the
+ * window above the watermark slides the window, and the holes it leaves behind are reported as
+ * gaps. A record at or below the watermark, or already in the bitmap, is reported as a duplicate;
+ * with at-least-once delivery these are redeliveries rather than errors.
+ */
+public class DeliveryVerifier {
+
+  public static final int HEADER_SIZE = Integer.BYTES + Long.BYTES;
+  public static final int DEFAULT_WINDOW = 64 * 1024;
+
+  private static final Logger logger = LoggerFactory.getLogger(DeliveryVerifier.class);
+  private final Track[] tracks;
+  private final int window;
+  private final Listener listener;
+  private final AtomicReference<String> firstGap = new AtomicReference<>();
+
+  /** Called on the delivering thread whenever an anomaly is found. */
+  public interface Listener {
+    void onGap(int producer, long fromSeq, long toSeq);
+
+    void onDuplicate(int producer, long seq);
+
+    void onReorder(int producer, long seq, long highestSeq);
+  }
+
+  public static final Listener LOGGING_LISTENER =
+      new Listener() {
+        @Override
+        public void onGap(int producer, long fromSeq, long toSeq) {
+          logger.warn("producer {} lost records [{}, {}]", producer, fromSeq, toSeq);
+        }
+
+        @Override
+        public void onDuplicate(int producer, long seq) {
+          logger.debug("producer {} record {} delivered again", producer, seq);
+        }
+
+        @Override
+        public void onReorder(int producer, long seq, long highestSeq) {
+          logger.debug("producer {} record {} delivered after {}", producer, seq, highestSeq);
+        }
+      };
+
+  public DeliveryVerifier(int producers) {
+    this(producers, DEFAULT_WINDOW, LOGGING_LISTENER);
+  }
+
+  public DeliveryVerifier(int producers, int window, Listener listener) {
+    if (window % Long.SIZE != 0) {
+      throw new IllegalArgumentException("window must be a multiple of 64, got " + window);
+    }
+    this.window = window;
+    this.listener = listener;
+    this.tracks = new Track[producers];
+    for (int i = 0; i < producers; i++) {
+      tracks[i] = new Track(window);
+    }
+  }
+
+  /** Writes the producer id and the sequence number at the beginning of the payload. */
+  public static void stamp(byte[] payload, int producer, long seq) {
+    ByteBuffer.wrap(payload).putInt(producer).putLong(seq);
+  }
+
+  public static int producerOf(byte[] payload) {
+    return ByteBuffer.wrap(payload).getInt(0);
+  }
+
+  public static long sequenceOf(byte[] payload) {
+    return ByteBuffer.wrap(payload).getLong(Integer.BYTES);
+  }
+
+  public void onDelivered(byte[] payload) {
+    onDelivered(producerOf(payload), sequenceOf(payload));
+  }
+
+  public void onDelivered(int producer, long seq) {
+    Track track = tracks[producer];
+    synchronized (track) {
+      track.delivered++;
+      if (seq <= track.watermark || seq <= track.watermark + window && track.isSet(seq)) {
+        track.duplicates++;
+        listener.onDuplicate(producer, seq);
+        return;
+      }
+      if (seq < track.highest) {
+        track.reordered++;
+        listener.onReorder(producer, seq, track.highest);
+      }
+      track.highest = Math.max(track.highest, seq);
+
+      // slide the window, what it leaves behind will never be delivered in order
+      while (seq > track.watermark + window) {
+        long next = track.watermark + 1;
+        if (track.isSet(next)) {
+          track.clear(next);
+        } else {
+          long firstSet = track.nextSet(next);
+          long gapEnd =
+              firstSet > track.watermark + window
+                  ? seq - window
+                  : Math.min(seq - window, firstSet - 1);
+          track.gaps += gapEnd - next + 1;
+          firstGap.compareAndSet(
+              null, "producer " + producer + " lost records [" + next + ", " + gapEnd + "]");
+          listener.onGap(producer, next, gapEnd);
+          track.watermark = gapEnd;
+          continue;
+        }
+        track.watermark = next;
+      }
+
+      track.set(seq);
+      while (track.isSet(track.watermark + 1)) {
+        track.watermark++;
+        track.clear(track.watermark);
+      }
+    }
+  }
+
+  /** Every record of the producer up to this sequence number was delivered. */
+  public long watermark(int producer) {
+    Track track = tracks[producer];
+    synchronized (track) {
+      return track.watermark;
+    }
+  }
+
+  /**
+   * Waits until every producer's watermark reaches the last sequence number it wrote, failing as
+   * soon as a gap is found.
+   */
+  public void awaitDelivered(long[] written, Duration timeout) throws InterruptedException {
+    long deadline = System.nanoTime() + timeout.toNanos();
+    for (int producer = 0; producer < written.length; producer++) {
+      while (watermark(producer) < written[producer] - 1) {
+        assertNoGaps();
+        if (System.nanoTime() > deadline) {
+          Assertions.fail(
+              "producer "
+                  + producer
+                  + " delivered up to "
+                  + watermark(producer)
+                  + " of "
+                  + written[producer]
+                  + " records, "
+                  + summary());
+        }
+        Thread.sleep(10);
+      }
+    }
+    assertNoGaps();
+  }
+
+  public void assertNoGaps() {
+    String gap = firstGap.get();
+    if (gap != null) {
+      Assertions.fail(gap + ", " + summary());
+    }
+  }
+
+  public long delivered() {
+    long delivered = 0;
+    for (Track track : tracks) {
+      synchronized (track) {
+        delivered += track.delivered;
+      }
+    }
+    return delivered;
+  }
+
+  public String summary() {
+    long delivered = 0;
+    long duplicates = 0;
+    long gaps = 0;
+    long reordered = 0;
+    for (Track track : tracks) {
+      synchronized (track) {
+        delivered += track.delivered;
+        duplicates += track.duplicates;
+        gaps += track.gaps;
+        reordered += track.reordered;
+      }
+    }
+    return "delivered="
+        + delivered
+        + ", duplicates="
+        + duplicates
+        + ", lost="
+        + gaps
+        + ", reordered="
+        + reordered;
+  }
+
+  private static class Track {
+    // bit (seq % window) is set if seq was delivered, for seq in (watermark, watermark + window]
+    private final long[] bitmap;
+    private long watermark = -1;
+    private long highest = -1;
+    private long delivered;
+    private long duplicates;
+    private long gaps;
+    private long reordered;
+
+    Track(int window) {
+      bitmap = new long[window / Long.SIZE];
+    }
+
+    private int slot(long seq) {
+      return (int) (seq % (bitmap.length * (long) Long.SIZE));
+    }
+
+    boolean isSet(long seq) {
+      int slot = slot(seq);
+      return (bitmap[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    void set(long seq) {
+      int slot = slot(seq);
+      bitmap[slot >>> 6] |= 1L << slot;
+    }
+
+    void clear(long seq) {
+      int slot = slot(seq);
+      bitmap[slot >>> 6] &= ~(1L << slot);
+    }
+
+    /** The first delivered sequence number from {@code seq}, or past the end of the window. */
+    long nextSet(long seq) {
+      long end = watermark + bitmap.length * (long) Long.SIZE;
+      while (seq <= end && !isSet(seq)) {
+        seq++;
+      }
+      return seq;
+    }
+  }
+}
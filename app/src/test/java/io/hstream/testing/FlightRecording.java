@@ -0,0 +1,202 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.logFile;
+import static io.hstream.testing.TestUtils.writeLog;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedClass;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Java Flight Recorder recording of the test JVM around a test annotated with {@link
+ * RecordFlight}. It records allocations, monitor contention, parking, socket I/O, threads and GC,
+ * and is saved as {@code flight.jfr} next to the container logs, with {@code flight-summary} giving
+ * the top allocation sites, the most contended locks (monitors, and the {@code
+ * java.util.concurrent} locks and queues threads park on), the socket traffic and the GC pauses.
+ */
+public class FlightRecording {
+
+  private static final Logger logger = LoggerFactory.getLogger(FlightRecording.class);
+  private static final int TOP = 10;
+  private final Recording recording;
+
+  private FlightRecording(Recording recording) {
+    this.recording = recording;
+  }
+
+  /** Starts a recording if the test or its class asks for one, returns null otherwise. */
+  public static FlightRecording startIfRequested(ExtensionContext context) {
+    boolean requested =
+        Boolean.getBoolean("flight.record")
+            || context.getRequiredTestClass().isAnnotationPresent(RecordFlight.class)
+            || context
+                .getTestMethod()
+                .map(m -> m.isAnnotationPresent(RecordFlight.class))
+                .orElse(false);
+    if (!requested) {
+      return null;
+    }
+    Recording recording = new Recording();
+    recording.setName(context.getDisplayName());
+    if (Runtime.version().feature() >= 16) {
+      recording.enable("jdk.ObjectAllocationSample").with("throttle", "150/s").withStackTrace();
+    } else {
+      // every TLAB and its stack trace, costly but the only allocation events before JDK 16
+      recording.enable("jdk.ObjectAllocationInNewTLAB").withStackTrace();
+      recording.enable("jdk.ObjectAllocationOutsideTLAB").withStackTrace();
+    }
+    recording.enable("jdk.JavaMonitorEnter").withThreshold(Duration.ofMillis(1)).withStackTrace();
+    recording.enable("jdk.JavaMonitorWait").withThreshold(Duration.ofMillis(10)).withStackTrace();
+    recording.enable("jdk.ThreadPark").withThreshold(Duration.ofMillis(10)).withStackTrace();
+    recording.enable("jdk.SocketRead").withThreshold(Duration.ZERO);
+    recording.enable("jdk.SocketWrite").withThreshold(Duration.ZERO);
+    recording.enable("jdk.ThreadStart");
+    recording.enable("jdk.ThreadEnd");
+    recording.enable("jdk.ThreadCPULoad").withPeriod(Duration.ofSeconds(1));
+    recording.enable("jdk.GarbageCollection");
+    recording.enable("jdk.GCPhasePause");
+    recording.enable("jdk.GCHeapSummary");
+    recording.start();
+    return new FlightRecording(recording);
+  }
+
+  public void stop(ExtensionContext context, String grp) throws Exception {
+    recording.stop();
+    Path file = logFile(context, "flight.jfr", grp).toPath();
+    recording.dump(file);
+    recording.close();
+    String summary = summarize(file);
+    logger.info("\n{}", summary);
+    writeLog(context, "flight-summary", grp, summary);
+  }
+
+  static String summarize(Path file) throws IOException {
+    Map<String, Long> sampledAllocations = new HashMap<>();
+    Map<String, Long> tlabAllocations = new HashMap<>();
+    // per lock: its kind, the number of threads blocked or parked on it and for how long
+    Map<String, long[]> locks = new HashMap<>();
+    long[] gc = new long[3];
+    long[] sockets = new long[4];
+    try (RecordingFile recordingFile = new RecordingFile(file)) {
+      while (recordingFile.hasMoreEvents()) {
+        RecordedEvent event = recordingFile.readEvent();
+        switch (event.getEventType().getName()) {
+          case "jdk.ObjectAllocationSample":
+            sampledAllocations.merge(site(event), event.getLong("weight"), Long::sum);
+            break;
+          case "jdk.ObjectAllocationInNewTLAB":
+            tlabAllocations.merge(site(event), event.getLong("tlabSize"), Long::sum);
+            break;
+          case "jdk.ObjectAllocationOutsideTLAB":
+            tlabAllocations.merge(site(event), event.getLong("allocationSize"), Long::sum);
+            break;
+          case "jdk.JavaMonitorEnter":
+            contended(locks, "monitor", event.getClass("monitorClass"), event);
+            break;
+          case "jdk.ThreadPark":
+            contended(locks, "park", event.getClass("parkedClass"), event);
+            break;
+          case "jdk.GarbageCollection":
+            gc[0]++;
+            gc[1] += event.getDuration("sumOfPauses").toNanos();
+            gc[2] = Math.max(gc[2], event.getDuration("longestPause").toNanos());
+            break;
+          case "jdk.SocketRead":
+            sockets[0]++;
+            sockets[1] += event.getLong("bytesRead");
+            break;
+          case "jdk.SocketWrite":
+            sockets[2]++;
+            sockets[3] += event.getLong("bytesWritten");
+            break;
+          default:
+        }
+      }
+    }
+
+    Map<String, Long> allocations =
+        sampledAllocations.isEmpty() ? tlabAllocations : sampledAllocations;
+    long totalAllocated = allocations.values().stream().mapToLong(Long::longValue).sum();
+    BenchmarkReport allocationReport = new BenchmarkReport("top-allocation-sites");
+    allocations.entrySet().stream()
+        .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+        .limit(TOP)
+        .forEach(
+            e ->
+                allocationReport
+                    .row(e.getKey())
+                    .put("MB", e.getValue() / 1e6)
+                    .put("share(%)", 100.0 * e.getValue() / totalAllocated));
+
+    BenchmarkReport lockReport = new BenchmarkReport("most-contended-locks");
+    locks.entrySet().stream()
+        .sorted((a, b) -> Long.compare(b.getValue()[1], a.getValue()[1]))
+        .limit(TOP)
+        .forEach(
+            e ->
+                lockReport
+                    .row(e.getKey())
+                    .put("waits", e.getValue()[0])
+                    .put("blocked(ms)", e.getValue()[1] / 1e6));
+
+    BenchmarkReport totals = new BenchmarkReport("totals");
+    totals
+        .row("gc")
+        .put("count", gc[0])
+        .put("pauses(ms)", gc[1] / 1e6)
+        .put("longest-pause(ms)", gc[2] / 1e6);
+    totals.row("socket-read").put("count", sockets[0]).put("MB", sockets[1] / 1e6);
+    totals.row("socket-write").put("count", sockets[2]).put("MB", sockets[3] / 1e6);
+
+    return allocationReport.render() + "\n" + lockReport.render() + "\n" + totals.render();
+  }
+
+  /**
+   * Adds a thread blocked on a monitor or parked on a lock to the locks, by kind and class: the
+   * class of a {@code ReentrantLock} is its sync, that of a queue or a future the queue or future.
+   */
+  private static void contended(
+      Map<String, long[]> locks, String kind, RecordedClass lockClass, RecordedEvent event) {
+    String name = kind + " " + (lockClass == null ? "?" : lockClass.getName());
+    long[] lock = locks.computeIfAbsent(name, k -> new long[2]);
+    lock[0]++;
+    lock[1] += event.getDuration().toNanos();
+  }
+
+  /** The allocating frame, and the first frame of the harness or client below it. */
+  private static String site(RecordedEvent event) {
+    RecordedStackTrace stackTrace = event.getStackTrace();
+    if (stackTrace == null || stackTrace.getFrames().isEmpty()) {
+      return "?";
+    }
+    List<RecordedFrame> frames = stackTrace.getFrames();
+    String top = frame(frames.get(0));
+    for (RecordedFrame frame : frames) {
+      if (frame.getMethod().getType().getName().startsWith("io.hstream")) {
+        String caller = frame(frame);
+        return caller.equals(top) ? top : top + " <- " + caller;
+      }
+    }
+    return top;
+  }
+
+  private static String frame(RecordedFrame frame) {
+    return frame.getMethod().getType().getName()
+        + "."
+        + frame.getMethod().getName()
+        + ":"
+        + frame.getLineNumber();
+  }
+}
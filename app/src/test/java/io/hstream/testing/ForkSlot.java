@@ -0,0 +1,120 @@
+package io.hstream.testing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The slot of this test JVM among the Gradle test forks running on the host, which gives it ports
+ * of its own for the clusters it starts. All containers run on the host network, so the forks would
+ * otherwise fight over the ports of ZooKeeper, HStore, the HServers and Toxiproxy.
+ *
+ * <p>A slot is taken by locking {@code hstream-it-slot-<n>.lock} in the temp directory for the life
+ * of the JVM, so concurrent Gradle builds on the same host get different slots too. Slot 0 has the
+ * usual ports, slot n adds {@code n * }{@link #PORT_STRIDE} to each of them.
+ */
+public class ForkSlot {
+
+  static final int MAX_SLOTS = 16;
+  static final int PORT_STRIDE = 20;
+  private static final Logger logger = LoggerFactory.getLogger(ForkSlot.class);
+  private static final ForkSlot current = acquire();
+
+  private final int index;
+  // held, never released: the lock goes away with the JVM
+  private final FileChannel lockChannel;
+
+  private ForkSlot(int index, FileChannel lockChannel) {
+    this.index = index;
+    this.lockChannel = lockChannel;
+  }
+
+  public static ForkSlot current() {
+    return current;
+  }
+
+  private static ForkSlot acquire() {
+    Path dir = Paths.get(System.getProperty("java.io.tmpdir"));
+    for (int i = 0; i < MAX_SLOTS; i++) {
+      Path lockFile = dir.resolve("hstream-it-slot-" + i + ".lock");
+      try {
+        FileChannel channel =
+            FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = channel.tryLock();
+        if (lock != null) {
+          logger.info("test fork {} got slot {}", System.getProperty("org.gradle.test.worker"), i);
+          return new ForkSlot(i, channel);
+        }
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    throw new IllegalStateException("all " + MAX_SLOTS + " slots of test forks are taken");
+  }
+
+  public int index() {
+    return index;
+  }
+
+  private int offset() {
+    return index * PORT_STRIDE;
+  }
+
+  public int zkPort() {
+    return 2181 + offset();
+  }
+
+  public int storeAdminPort() {
+    return 6440 + offset();
+  }
+
+  public int hServerPort(int serverId) {
+    return 6570 + offset() + serverId;
+  }
+
+  public int hServerInternalPort(int serverId) {
+    return 65000 + offset() + serverId;
+  }
+
+  public int toxiproxyApiPort() {
+    return 8474 + offset();
+  }
+
+  /** A new data directory for HStore, under a directory of the slot. */
+  public Path newDataDir() throws IOException {
+    Path slotDir =
+        Paths.get(System.getProperty("java.io.tmpdir")).resolve("hstream-it-slot-" + index);
+    Files.createDirectories(slotDir);
+    return Files.createTempDirectory(slotDir, "hstream");
+  }
+
+  /**
+   * A ZooKeeper configuration for the port of the slot, without the admin server, whose port 8080
+   * the forks would share.
+   */
+  public Path zooConfig() throws IOException {
+    Path config = Files.createTempFile("zoo-slot-" + index + "-", ".cfg");
+    Files.writeString(
+        config,
+        "dataDir=/data\n"
+            + "dataLogDir=/datalog\n"
+            + "tickTime=2000\n"
+            + "initLimit=5\n"
+            + "syncLimit=2\n"
+            + "maxClientCnxns=60\n"
+            + "clientPort="
+            + zkPort()
+            + "\n"
+            + "admin.enableServer=false\n");
+    config.toFile().deleteOnExit();
+    return config;
+  }
+}
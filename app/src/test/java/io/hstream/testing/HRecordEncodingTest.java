@@ -0,0 +1,200 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.buildRecord;
+import static io.hstream.testing.TestUtils.consume;
+import static io.hstream.testing.TestUtils.makeBufferedProducer;
+import static io.hstream.testing.TestUtils.randStream;
+import static io.hstream.testing.TestUtils.randSubscription;
+
+import com.google.protobuf.Struct;
+import io.hstream.BufferedProducer;
+import io.hstream.HRecord;
+import io.hstream.HStreamClient;
+import io.hstream.Record;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Compares the client-side cost of {@link HRecord} payloads of several shapes with raw payloads of
+ * the same wire size. The shapes can be overridden with {@code -Dhrecord.shapes=flat:16,array:64}.
+ *
+ * <p>The client sends an {@link HRecord} as the protobuf encoding of the {@link Struct} it wraps,
+ * so that is what is encoded and decoded here, and what the wire size is the length of.
+ */
+@ExtendWith(ClusterExtension.class)
+public class HRecordEncodingTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(HRecordEncodingTest.class);
+  private static final String DEFAULT_SHAPES =
+      "flat:2,flat:32,flat:512,nested:4,nested:32,array:64,array:4096";
+  private static final int ENCODE_ROUNDS = 2000;
+  private static final int RECORD_COUNT = 2048;
+  private static final com.sun.management.ThreadMXBean threadMXBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  private final Random random = new Random(System.currentTimeMillis());
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    hStreamClient.close();
+  }
+
+  private static List<HRecordShape> shapes() {
+    return HRecordShape.parseAll(System.getProperty("hrecord.shapes", DEFAULT_SHAPES));
+  }
+
+  /** CPU time and allocated bytes of the current thread. */
+  private static class ThreadCost {
+    private final long cpuBegin = threadMXBean.getCurrentThreadCpuTime();
+    private final long allocatedBegin =
+        threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+    void report(BenchmarkReport.Row row, String prefix, int rounds) {
+      long cpu = threadMXBean.getCurrentThreadCpuTime() - cpuBegin;
+      long allocated =
+          threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBegin;
+      row.put(prefix + "-cpu(ns/op)", cpu / rounds)
+          .put(prefix + "-alloc(B/op)", allocated / rounds);
+    }
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @Test
+  @Timeout(300)
+  void testClientSideEncodingCost() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("hrecord-client-side-cost");
+    for (HRecordShape shape : shapes()) {
+      // warm up the JIT before measuring anything
+      for (int i = 0; i < ENCODE_ROUNDS; i++) {
+        Struct.parseFrom(shape.build(random).getDelegate().toByteArray());
+      }
+
+      List<HRecord> hRecords = new ArrayList<>(ENCODE_ROUNDS);
+      var row = report.row(shape.toString());
+      var cost = new ThreadCost();
+      for (int i = 0; i < ENCODE_ROUNDS; i++) {
+        hRecords.add(shape.build(random));
+      }
+      cost.report(row, "build", ENCODE_ROUNDS);
+
+      List<byte[]> encoded = new ArrayList<>(ENCODE_ROUNDS);
+      cost = new ThreadCost();
+      for (HRecord hRecord : hRecords) {
+        encoded.add(hRecord.getDelegate().toByteArray());
+      }
+      cost.report(row, "encode", ENCODE_ROUNDS);
+
+      cost = new ThreadCost();
+      for (byte[] bytes : encoded) {
+        Struct.parseFrom(bytes);
+      }
+      cost.report(row, "decode", ENCODE_ROUNDS);
+
+      int wireSize = encoded.get(0).length;
+      byte[] raw = new byte[wireSize];
+      random.nextBytes(raw);
+      cost = new ThreadCost();
+      for (int i = 0; i < ENCODE_ROUNDS; i++) {
+        buildRecord(raw.clone());
+      }
+      cost.report(row, "raw-build", ENCODE_ROUNDS);
+      row.put("wire-size(B)", wireSize);
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+
+  @Test
+  @Timeout(900)
+  void testEndToEndThroughput() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("hrecord-end-to-end");
+    for (HRecordShape shape : shapes()) {
+      List<Record> hRecords = new ArrayList<>(RECORD_COUNT);
+      List<Record> rawRecords = new ArrayList<>(RECORD_COUNT);
+      long wireBytes = 0;
+      for (int i = 0; i < RECORD_COUNT; i++) {
+        HRecord hRecord = shape.build(random);
+        byte[] raw = new byte[hRecord.getDelegate().getSerializedSize()];
+        random.nextBytes(raw);
+        wireBytes += raw.length;
+        hRecords.add(buildRecord(hRecord));
+        rawRecords.add(buildRecord(raw));
+      }
+      benchmarkEndToEnd(report.row(shape + ",hrecord"), hRecords, wireBytes);
+      benchmarkEndToEnd(report.row(shape + ",raw"), rawRecords, wireBytes);
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+
+  private void benchmarkEndToEnd(BenchmarkReport.Row row, List<Record> records, long wireBytes)
+      throws Exception {
+    String stream = randStream(hStreamClient);
+    String subscription = randSubscription(hStreamClient, stream);
+    BufferedProducer producer = makeBufferedProducer(hStreamClient, stream, 64);
+    long begin = System.nanoTime();
+    List<CompletableFuture<String>> futures = new ArrayList<>(records.size());
+    for (Record record : records) {
+      futures.add(producer.write(record));
+    }
+    futures.forEach(CompletableFuture::join);
+    producer.close();
+    row.put("produce-MB/s", wireBytes / ((System.nanoTime() - begin) / 1e9) / 1024 / 1024);
+
+    AtomicInteger received = new AtomicInteger();
+    begin = System.nanoTime();
+    consume(
+        hStreamClient,
+        subscription,
+        "c1",
+        120,
+        receivedRawRecord -> received.incrementAndGet() < records.size(),
+        receivedHRecord -> received.incrementAndGet() < records.size());
+    row.put("consume-MB/s", wireBytes / ((System.nanoTime() - begin) / 1e9) / 1024 / 1024);
+    Assertions.assertEquals(records.size(), received.get());
+  }
+}
@@ -0,0 +1,116 @@
+package io.hstream.testing;
+
+import io.hstream.HArray;
+import io.hstream.HRecord;
+import io.hstream.HRecordBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The shape of a generated {@link HRecord}: a wide flat record, a deeply nested one, or one holding
+ * a large array. Shapes can be parsed from specs like {@code flat:256}, {@code nested:16} or {@code
+ * array:1024}.
+ */
+public class HRecordShape {
+
+  public enum Kind {
+    FLAT,
+    NESTED,
+    ARRAY
+  }
+
+  private final Kind kind;
+  private final int size;
+
+  public HRecordShape(Kind kind, int size) {
+    this.kind = kind;
+    this.size = size;
+  }
+
+  /** A record with {@code fields} fields, alternating strings, integers, doubles and booleans. */
+  public static HRecordShape wideFlat(int fields) {
+    return new HRecordShape(Kind.FLAT, fields);
+  }
+
+  /** A chain of {@code depth} records nested into each other, each with a few scalar fields. */
+  public static HRecordShape deeplyNested(int depth) {
+    return new HRecordShape(Kind.NESTED, depth);
+  }
+
+  /** A record with one array of {@code length} numbers. */
+  public static HRecordShape largeArray(int length) {
+    return new HRecordShape(Kind.ARRAY, length);
+  }
+
+  public static HRecordShape parse(String spec) {
+    String[] parts = spec.trim().split(":");
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("invalid HRecord shape " + spec);
+    }
+    return new HRecordShape(Kind.valueOf(parts[0].toUpperCase()), Integer.parseInt(parts[1]));
+  }
+
+  /** Parses a comma separated list of shapes, e.g. {@code flat:16,nested:8,array:256}. */
+  public static List<HRecordShape> parseAll(String specs) {
+    List<HRecordShape> shapes = new ArrayList<>();
+    for (String spec : specs.split(",")) {
+      shapes.add(parse(spec));
+    }
+    return shapes;
+  }
+
+  public HRecord build(Random rand) {
+    switch (kind) {
+      case FLAT:
+        HRecordBuilder flat = HRecord.newBuilder();
+        for (int i = 0; i < size; i++) {
+          putScalar(flat, "field_" + i, i, rand);
+        }
+        return flat.build();
+      case NESTED:
+        HRecord nested = scalars(rand).build();
+        for (int i = 0; i < size; i++) {
+          nested = scalars(rand).put("child", nested).build();
+        }
+        return nested;
+      case ARRAY:
+        var array = HArray.newBuilder();
+        for (int i = 0; i < size; i++) {
+          array.add(rand.nextLong());
+        }
+        return HRecord.newBuilder().put("id", rand.nextInt()).put("values", array.build()).build();
+      default:
+        throw new IllegalStateException("unknown shape " + kind);
+    }
+  }
+
+  private static HRecordBuilder scalars(Random rand) {
+    HRecordBuilder builder = HRecord.newBuilder();
+    for (int i = 0; i < 4; i++) {
+      putScalar(builder, "field_" + i, i, rand);
+    }
+    return builder;
+  }
+
+  private static void putScalar(HRecordBuilder builder, String name, int i, Random rand) {
+    switch (i % 4) {
+      case 0:
+        builder.put(name, TestUtils.randText());
+        break;
+      case 1:
+        builder.put(name, rand.nextLong());
+        break;
+      case 2:
+        builder.put(name, rand.nextDouble());
+        break;
+      default:
+        builder.put(name, rand.nextBoolean());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return kind.name().toLowerCase() + ":" + size;
+  }
+}
@@ -0,0 +1,90 @@
+package io.hstream.testing;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.platform.engine.TestExecutionResult;
+import org.junit.platform.engine.TestSource;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.TestExecutionListener;
+import org.junit.platform.launcher.TestIdentifier;
+import org.junit.platform.launcher.TestPlan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times every test method, a parameterized test as a whole, and adds the durations and results of
+ * the run to the {@link TestHistory} when it ends. Registered in {@code
+ * META-INF/services/org.junit.platform.launcher.TestExecutionListener}.
+ */
+public class HistoryListener implements TestExecutionListener {
+
+  private static final Logger logger = LoggerFactory.getLogger(HistoryListener.class);
+  private final Map<String, Long> beginNanos = new ConcurrentHashMap<>();
+  private final Map<String, TestHistory.Run> runs = new ConcurrentHashMap<>();
+  private TestPlan testPlan;
+
+  @Override
+  public void testPlanExecutionStarted(TestPlan testPlan) {
+    this.testPlan = testPlan;
+  }
+
+  @Override
+  public void executionStarted(TestIdentifier testIdentifier) {
+    if (key(testIdentifier) != null) {
+      beginNanos.put(testIdentifier.getUniqueId(), System.nanoTime());
+    }
+  }
+
+  @Override
+  public void executionFinished(
+      TestIdentifier testIdentifier, TestExecutionResult testExecutionResult) {
+    Long begin = beginNanos.remove(testIdentifier.getUniqueId());
+    if (begin == null || testExecutionResult.getStatus() == TestExecutionResult.Status.ABORTED) {
+      return;
+    }
+    String key = key(testIdentifier);
+    runs.put(
+        key,
+        new TestHistory.Run(
+            (System.nanoTime() - begin) / 1_000_000,
+            TestHistory.takeSetupMillis(key),
+            testExecutionResult.getStatus() == TestExecutionResult.Status.FAILED));
+  }
+
+  @Override
+  public void testPlanExecutionFinished(TestPlan testPlan) {
+    if (runs.isEmpty()) {
+      return;
+    }
+    try {
+      TestHistory.update(TestHistory.file(), runs);
+    } catch (Exception e) {
+      logger.warn("failed to update the test history {}: {}", TestHistory.file(), e.toString());
+    }
+  }
+
+  /**
+   * The history key of a test method, or null for the classes and the invocations of a
+   * parameterized test, whose parent has the same method.
+   */
+  private String key(TestIdentifier testIdentifier) {
+    String key = key(testIdentifier.getSource());
+    if (key == null) {
+      return null;
+    }
+    Optional<TestIdentifier> parent = testPlan.getParent(testIdentifier);
+    if (parent.isPresent() && key.equals(key(parent.get().getSource()))) {
+      return null;
+    }
+    return key;
+  }
+
+  private static String key(Optional<TestSource> source) {
+    if (source.isPresent() && source.get() instanceof MethodSource) {
+      MethodSource method = (MethodSource) source.get();
+      return TestHistory.key(method.getClassName(), method.getMethodName());
+    }
+    return null;
+  }
+}
@@ -0,0 +1,34 @@
+package io.hstream.testing;
+
+import java.util.Comparator;
+import java.util.Map;
+import org.junit.jupiter.api.MethodDescriptor;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.MethodOrdererContext;
+
+/**
+ * Orders the tests of a class by their {@link TestHistory}, the slowest and flakiest first, so the
+ * long tests don't start last and a failure shows early. Tests without a history count as average
+ * ones, and ties keep the order of the declarations. The default orderer of the methods, set in
+ * {@code junit-platform.properties}.
+ */
+public class HistoryOrderer implements MethodOrderer {
+
+  @Override
+  public void orderMethods(MethodOrdererContext context) {
+    Map<String, TestHistory.Entry> history = TestHistory.get();
+    double average =
+        history.values().stream().mapToDouble(TestHistory.Entry::cost).average().orElse(0);
+    String className = context.getTestClass().getName();
+    context
+        .getMethodDescriptors()
+        .sort(
+            Comparator.comparingDouble(
+                    (MethodDescriptor m) -> {
+                      TestHistory.Entry entry =
+                          history.get(TestHistory.key(className, m.getMethod().getName()));
+                      return entry == null ? average : entry.cost();
+                    })
+                .reversed());
+  }
+}
@@ -0,0 +1,319 @@
+package io.hstream.testing;
+
+import io.hstream.BatchSetting;
+import io.hstream.BufferedProducer;
+import io.hstream.BufferedProducerBuilder;
+import io.hstream.ConsumerBuilder;
+import io.hstream.HRecordReceiver;
+import io.hstream.HStreamClient;
+import io.hstream.Producer;
+import io.hstream.ProducerBuilder;
+import io.hstream.RawRecordReceiver;
+import io.hstream.Record;
+import io.hstream.Responder;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Wraps a client so that the producers, buffered producers and consumers it builds record their
+ * activity in the {@link MetricsRegistry} of a test. The extensions wrap the {@code hStreamClient}
+ * field of every test, and only that one: a test building more clients of its own wraps them with
+ * {@link #client} and {@link MetricsRegistry#of} to have them counted too.
+ *
+ * <p>The wrappers are dynamic proxies: calls they do not measure, and the builder methods, go
+ * through to the client unchanged.
+ */
+public class Instrumented {
+
+  /** Wraps the {@code hStreamClient} field of the test, which its setup has built by now. */
+  static void instrument(Object testInstance, MetricsRegistry registry)
+      throws IllegalAccessException {
+    for (Field field : testInstance.getClass().getDeclaredFields()) {
+      if (field.getName().equals("hStreamClient") && field.getType() == HStreamClient.class) {
+        field.setAccessible(true);
+        HStreamClient client = (HStreamClient) field.get(testInstance);
+        if (client != null) {
+          field.set(testInstance, client(client, registry));
+        }
+      }
+    }
+  }
+
+  public static HStreamClient client(HStreamClient client, MetricsRegistry registry) {
+    if (client instanceof Wrapper) {
+      return client;
+    }
+    return proxy(
+        HStreamClient.class,
+        client,
+        (method, args) -> {
+          Object result = invoke(client, method, args);
+          switch (method.getName()) {
+            case "newProducer":
+              return producerBuilder((ProducerBuilder) result, registry);
+            case "newBufferedProducer":
+              return bufferedProducerBuilder((BufferedProducerBuilder) result, registry);
+            case "newConsumer":
+              return consumerBuilder((ConsumerBuilder) result, registry);
+            default:
+              return result;
+          }
+        });
+  }
+
+  /** Implemented by the proxies, so that a client is not wrapped twice. */
+  private interface Wrapper {}
+
+  private interface Handler {
+    Object invoke(Method method, Object[] args) throws Throwable;
+  }
+
+  /** A proxy of the interface, which returns itself where the target returns itself. */
+  @SuppressWarnings("unchecked")
+  private static <T> T proxy(Class<T> type, T target, Handler handler) {
+    Object[] self = new Object[1];
+    InvocationHandler invocationHandler =
+        (proxy, method, args) -> {
+          if (method.getDeclaringClass() == Object.class) {
+            return invoke(target, method, args);
+          }
+          Object result = handler.invoke(method, args);
+          return result == target ? self[0] : result;
+        };
+    self[0] =
+        Proxy.newProxyInstance(
+            type.getClassLoader(), new Class<?>[] {type, Wrapper.class}, invocationHandler);
+    return (T) self[0];
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static ProducerBuilder producerBuilder(
+      ProducerBuilder builder, MetricsRegistry registry) {
+    return proxy(
+        ProducerBuilder.class,
+        builder,
+        (method, args) -> {
+          Object result = invoke(builder, method, args);
+          return method.getName().equals("build") ? producer((Producer) result, registry) : result;
+        });
+  }
+
+  private static BufferedProducerBuilder bufferedProducerBuilder(
+      BufferedProducerBuilder builder, MetricsRegistry registry) {
+    // the record count limit of the batch setting, 0 while the builder has none
+    int[] recordCountLimit = new int[1];
+    return proxy(
+        BufferedProducerBuilder.class,
+        builder,
+        (method, args) -> {
+          if (method.getName().equals("batchSetting") && args[0] != null) {
+            recordCountLimit[0] = ((BatchSetting) args[0]).getRecordCountLimit();
+          }
+          Object result = invoke(builder, method, args);
+          return method.getName().equals("build")
+              ? bufferedProducer((BufferedProducer) result, registry, recordCountLimit[0])
+              : result;
+        });
+  }
+
+  private static ConsumerBuilder consumerBuilder(
+      ConsumerBuilder builder, MetricsRegistry registry) {
+    return proxy(
+        ConsumerBuilder.class,
+        builder,
+        (method, args) -> {
+          switch (method.getName()) {
+            case "rawRecordReceiver":
+              args[0] = rawRecordReceiver((RawRecordReceiver) args[0], registry);
+              break;
+            case "hRecordReceiver":
+              args[0] = hRecordReceiver((HRecordReceiver) args[0], registry);
+              break;
+            default:
+          }
+          return invoke(builder, method, args);
+        });
+  }
+
+  /** The meters of the writes of one kind of producer. */
+  private static class WriteMetrics {
+    private final MetricsRegistry.Meter writes;
+    private final MetricsRegistry.Meter bytes;
+    private final MetricsRegistry.Meter errors;
+    private final MetricsRegistry.Gauge outstanding;
+    private final Recorder latency;
+
+    WriteMetrics(String prefix, MetricsRegistry registry) {
+      writes = registry.meter(prefix + ".writes");
+      bytes = registry.meter(prefix + ".bytes");
+      errors = registry.meter(prefix + ".errors");
+      outstanding = registry.gauge(prefix + ".outstanding");
+      latency = registry.histogram(prefix + ".write-latency(us)");
+    }
+
+    CompletableFuture<String> write(Producer producer, Record record) {
+      long begin = System.nanoTime();
+      outstanding.increment();
+      CompletableFuture<String> future;
+      try {
+        future = producer.write(record);
+      } catch (RuntimeException e) {
+        outstanding.decrement();
+        errors.mark();
+        throw e;
+      }
+      future.whenComplete(
+          (id, e) -> {
+            outstanding.decrement();
+            if (e != null) {
+              errors.mark();
+            } else {
+              latency.recordValue((System.nanoTime() - begin) / 1000);
+              writes.mark();
+              if (record.isRawRecord()) {
+                bytes.mark(record.getRawRecord().length);
+              }
+            }
+          });
+      return future;
+    }
+  }
+
+  private static Producer producer(Producer producer, MetricsRegistry registry) {
+    WriteMetrics metrics = new WriteMetrics("producer", registry);
+    return proxy(
+        Producer.class,
+        producer,
+        (method, args) ->
+            method.getName().equals("write")
+                ? metrics.write(producer, (Record) args[0])
+                : invoke(producer, method, args));
+  }
+
+  /**
+   * The number of records in each batch a buffered producer appended, counted by the batch id the
+   * ids of its records share, and how full that is of the record count limit of its batch setting.
+   * Batches are recorded when the producer is closed, once they are all complete, so the batches of
+   * producers a test leaves open are not.
+   */
+  private static class BatchFill {
+    private final Map<String, LongAdder> batches = new ConcurrentHashMap<>();
+    private final Recorder records;
+    private final Recorder fill;
+    private final int recordCountLimit;
+
+    BatchFill(MetricsRegistry registry, int recordCountLimit) {
+      records = registry.histogram("buffered-producer.batch-records");
+      fill = recordCountLimit > 0 ? registry.histogram("buffered-producer.batch-fill(%)") : null;
+      this.recordCountLimit = recordCountLimit;
+    }
+
+    void written(String recordId) {
+      String batch = recordId.substring(0, recordId.lastIndexOf('-'));
+      batches.computeIfAbsent(batch, b -> new LongAdder()).increment();
+    }
+
+    void record() {
+      for (LongAdder batch : batches.values()) {
+        long count = batch.sum();
+        records.recordValue(count);
+        if (fill != null) {
+          fill.recordValue(count * 100 / recordCountLimit);
+        }
+      }
+      batches.clear();
+    }
+  }
+
+  private static BufferedProducer bufferedProducer(
+      BufferedProducer producer, MetricsRegistry registry, int recordCountLimit) {
+    WriteMetrics metrics = new WriteMetrics("buffered-producer", registry);
+    BatchFill batchFill = new BatchFill(registry, recordCountLimit);
+    return proxy(
+        BufferedProducer.class,
+        producer,
+        (method, args) -> {
+          switch (method.getName()) {
+            case "write":
+              CompletableFuture<String> future = metrics.write(producer, (Record) args[0]);
+              future.thenAccept(batchFill::written);
+              return future;
+            case "close":
+              Object result = invoke(producer, method, args);
+              batchFill.record();
+              return result;
+            default:
+              return invoke(producer, method, args);
+          }
+        });
+  }
+
+  /** The meters of the records received by consumers. */
+  private static class ReceiveMetrics {
+    private final MetricsRegistry.Meter received;
+    private final MetricsRegistry.Meter bytes;
+    private final MetricsRegistry.Meter acks;
+    private final Recorder handlerTime;
+
+    ReceiveMetrics(MetricsRegistry registry) {
+      received = registry.meter("consumer.received");
+      bytes = registry.meter("consumer.bytes");
+      acks = registry.meter("consumer.acks");
+      handlerTime = registry.histogram("consumer.handler-time(us)");
+    }
+
+    Responder responder(Responder responder) {
+      return () -> {
+        acks.mark();
+        responder.ack();
+      };
+    }
+
+    void handled(long begin) {
+      handlerTime.recordValue((System.nanoTime() - begin) / 1000);
+      received.mark();
+    }
+  }
+
+  private static RawRecordReceiver rawRecordReceiver(
+      RawRecordReceiver receiver, MetricsRegistry registry) {
+    ReceiveMetrics metrics = new ReceiveMetrics(registry);
+    return (receivedRawRecord, responder) -> {
+      long begin = System.nanoTime();
+      try {
+        receiver.processRawRecord(receivedRawRecord, metrics.responder(responder));
+      } finally {
+        metrics.handled(begin);
+        metrics.bytes.mark(receivedRawRecord.getRawRecord().length);
+      }
+    };
+  }
+
+  private static HRecordReceiver hRecordReceiver(
+      HRecordReceiver receiver, MetricsRegistry registry) {
+    ReceiveMetrics metrics = new ReceiveMetrics(registry);
+    return (receivedHRecord, responder) -> {
+      long begin = System.nanoTime();
+      try {
+        receiver.processHRecord(receivedHRecord, metrics.responder(responder));
+      } finally {
+        metrics.handled(begin);
+      }
+    };
+  }
+}
@@ -0,0 +1,312 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.writeLog;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.testcontainers.containers.output.OutputFrame;
+
+/**
+ * Reads the logs of the HServers and of HStore as the containers print them, and counts the lines
+ * matching a {@link Rule} per container and second: {@code server-events.csv} has one row per
+ * second with events, its time in the same milliseconds as the series of {@link
+ * ContainerStatsSampler}, and {@code report-server-events} the number of events of each rule per
+ * container and their peak rate. Memory grows with the length of the test, not with the events.
+ *
+ * <p>Rules match a literal within the line, ignoring case, without regular expressions and without
+ * looking past the end of the line, so the analyzer keeps up with debug logs. A rule may also
+ * extract a duration from the lines it matches, such as the time an append took, with a regular
+ * expression that only runs on those lines; the report then has the distribution of the durations.
+ * The default rules follow the messages of the server; add a rule when a message worth counting
+ * appears. Most of them are debug messages, which the {@code performance} profile of {@link
+ * LogSettings} turns off.
+ *
+ * <p>Tests read the counts so far with {@link #count}, e.g. to find the server handling a stream,
+ * from the analyzer of their cluster, {@link #of} their context.
+ */
+public class LogAnalyzer {
+
+  public static final List<Rule> DEFAULT_RULES =
+      List.of(
+          new Rule("append", "Receive Append Request"),
+          new Rule(
+              "append-latency",
+              "append",
+              "append\\b.*?\\b(?:took|latency|elapsed)\\s*[:=]?\\s*"
+                  + "(\\d+(?:\\.\\d+)?)\\s*(ns|us|ms|s)\\b"),
+          new Rule("create-subscription", "createSubscription"),
+          new Rule("fetch", "streamingFetch"),
+          new Rule("ack", "Receive Ack"),
+          new Rule("rebalance", "rebalance"),
+          new Rule("rebuilding", "Rebuilding"),
+          new Rule("session-expiry", "Expiring session"));
+
+  private static final ExtensionContext.Namespace NAMESPACE =
+      ExtensionContext.Namespace.create(LogAnalyzer.class);
+
+  private final long beginMillis;
+  private final List<Rule> rules;
+  // per "source:rule", the events per second
+  private final ConcurrentMap<String, Counts> counts = new ConcurrentHashMap<>();
+
+  /**
+   * Counts the lines containing {@code literal}, in any case. A rule with a {@code duration}
+   * expression only counts those in which the expression finds a match, and records the number its
+   * first group captures, in the unit its second group captures, one of ns, us, ms and s, or else
+   * in milliseconds.
+   */
+  public static class Rule {
+    final String name;
+    final String literal;
+    final Pattern duration;
+
+    public Rule(String name, String literal) {
+      this(name, literal, null);
+    }
+
+    public Rule(String name, String literal, String duration) {
+      this.name = name;
+      this.literal = literal;
+      this.duration = duration == null ? null : Pattern.compile(duration, Pattern.CASE_INSENSITIVE);
+    }
+  }
+
+  private static class Counts {
+    final String source;
+    final String rule;
+    final ConcurrentMap<Long, LongAdder> perSecond = new ConcurrentHashMap<>();
+    final LongAccumulator firstMillis = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    final LongAdder total = new LongAdder();
+    // in microseconds, null unless the rule extracts durations
+    final Histogram durations;
+
+    Counts(String source, Rule rule) {
+      this.source = source;
+      this.rule = rule.name;
+      this.durations = rule.duration == null ? null : new ConcurrentHistogram(3);
+    }
+
+    void add(long timeMillis) {
+      perSecond.computeIfAbsent(timeMillis / 1000, k -> new LongAdder()).increment();
+      firstMillis.accumulate(timeMillis);
+      total.increment();
+    }
+  }
+
+  /** {@code beginMillis} is the time the event times are relative to. */
+  public LogAnalyzer(long beginMillis) {
+    this(beginMillis, DEFAULT_RULES);
+  }
+
+  public LogAnalyzer(long beginMillis, List<Rule> rules) {
+    this.beginMillis = beginMillis;
+    this.rules = rules;
+  }
+
+  /** A new analyzer with the default rules for the test, also kept in its store for {@link #of}. */
+  public static LogAnalyzer resolve(ExtensionContext context, long beginMillis) {
+    LogAnalyzer logAnalyzer = new LogAnalyzer(beginMillis);
+    context.getStore(NAMESPACE).put(LogAnalyzer.class, logAnalyzer);
+    return logAnalyzer;
+  }
+
+  /** The analyzer of the cluster of the test, null outside of a cluster test. */
+  public static LogAnalyzer of(ExtensionContext context) {
+    return context.getStore(NAMESPACE).get(LogAnalyzer.class, LogAnalyzer.class);
+  }
+
+  /**
+   * The lines of {@code source} matching the rule named {@code rule} so far. The consumers get the
+   * lines shortly after the containers print them, not at once.
+   */
+  public long count(String source, String rule) {
+    Counts sourceCounts = counts.get(source + ":" + rule);
+    return sourceCounts == null ? 0 : sourceCounts.total.sum();
+  }
+
+  /** {@link #count} of each source. */
+  public long[] counts(List<String> sources, String rule) {
+    long[] counts = new long[sources.size()];
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = count(sources.get(i), rule);
+    }
+    return counts;
+  }
+
+  /** The durations the rule named {@code rule} extracted from {@code source} so far, or null. */
+  public Histogram durations(String source, String rule) {
+    Counts sourceCounts = counts.get(source + ":" + rule);
+    return sourceCounts == null ? null : sourceCounts.durations;
+  }
+
+  /**
+   * The index of the source with the most lines matching the rule since the counts {@code before},
+   * -1 if none has any, e.g. because the rule matches debug logs and they are off.
+   */
+  public int mostMatched(List<String> sources, String rule, long[] before) {
+    long[] after = counts(sources, rule);
+    int most = -1;
+    for (int i = 0; i < after.length; i++) {
+      if (after[i] > before[i] && (most < 0 || after[i] - before[i] > after[most] - before[most])) {
+        most = i;
+      }
+    }
+    return most;
+  }
+
+  /** A log consumer for {@code GenericContainer.withLogConsumer}, set before the start. */
+  public Consumer<OutputFrame> consumer(String source) {
+    return frame -> {
+      String text = frame.getUtf8String();
+      if (text == null || text.isEmpty()) {
+        return;
+      }
+      long timeMillis = System.currentTimeMillis() - beginMillis;
+      // a frame is normally one line, split in case the daemon merges some
+      int lineBegin = 0;
+      while (lineBegin < text.length()) {
+        int lineEnd = text.indexOf('\n', lineBegin);
+        if (lineEnd < 0) {
+          lineEnd = text.length();
+        }
+        analyze(source, text, lineBegin, lineEnd, timeMillis);
+        lineBegin = lineEnd + 1;
+      }
+    };
+  }
+
+  private void analyze(String source, String text, int begin, int end, long timeMillis) {
+    for (Rule rule : rules) {
+      if (!contains(text, begin, end, rule.literal)) {
+        continue;
+      }
+      long micros = -1;
+      if (rule.duration != null) {
+        Matcher matcher = rule.duration.matcher(text).region(begin, end);
+        if (!matcher.find()) {
+          continue;
+        }
+        micros = micros(matcher);
+      }
+      Counts ruleCounts =
+          counts.computeIfAbsent(source + ":" + rule.name, k -> new Counts(source, rule));
+      ruleCounts.add(timeMillis);
+      if (micros >= 0) {
+        ruleCounts.durations.recordValue(micros);
+      }
+    }
+  }
+
+  /** The duration captured by a rule, in microseconds. */
+  static long micros(Matcher matcher) {
+    double value = Double.parseDouble(matcher.group(1));
+    String unit = matcher.groupCount() >= 2 ? matcher.group(2) : null;
+    if (unit == null) {
+      unit = "ms";
+    }
+    switch (unit.toLowerCase()) {
+      case "ns":
+        return Math.round(value / 1000);
+      case "us":
+        return Math.round(value);
+      case "s":
+        return Math.round(value * 1_000_000);
+      default:
+        return Math.round(value * 1000);
+    }
+  }
+
+  /**
+   * Whether {@code text} has {@code literal} between {@code begin} and {@code end}, ignoring case.
+   */
+  static boolean contains(String text, int begin, int end, String literal) {
+    if (literal.isEmpty()) {
+      return true;
+    }
+    char lower = Character.toLowerCase(literal.charAt(0));
+    char upper = Character.toUpperCase(literal.charAt(0));
+    for (int i = begin, last = end - literal.length(); i <= last; i++) {
+      char c = text.charAt(i);
+      if ((c == lower || c == upper) && text.regionMatches(true, i, literal, 0, literal.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Per source and rule, sorted, the seconds with events. */
+  private Map<String, Map<Long, Long>> snapshot() {
+    Map<String, Map<Long, Long>> snapshot = new TreeMap<>();
+    counts.forEach(
+        (key, keyCounts) -> {
+          Map<Long, Long> seconds = new TreeMap<>();
+          keyCounts.perSecond.forEach((second, count) -> seconds.put(second, count.sum()));
+          snapshot.put(key, seconds);
+        });
+    return snapshot;
+  }
+
+  public String toCsv() {
+    StringBuilder csv = new StringBuilder("time_ms,source,event,count\n");
+    snapshot()
+        .forEach(
+            (key, seconds) -> {
+              Counts keyCounts = counts.get(key);
+              seconds.forEach(
+                  (second, count) ->
+                      csv.append(second * 1000)
+                          .append(',')
+                          .append(keyCounts.source)
+                          .append(',')
+                          .append(keyCounts.rule)
+                          .append(',')
+                          .append(count)
+                          .append('\n'));
+            });
+    return csv.toString();
+  }
+
+  /**
+   * Per source and rule: the number of events, the most in a second and the first one, and the
+   * distribution of the durations of the rules extracting some.
+   */
+  public BenchmarkReport report() {
+    BenchmarkReport report = new BenchmarkReport("server-events");
+    snapshot()
+        .forEach(
+            (key, seconds) -> {
+              Counts keyCounts = counts.get(key);
+              BenchmarkReport.Row row =
+                  report
+                      .row(key)
+                      .put("count", seconds.values().stream().mapToLong(Long::longValue).sum())
+                      .put("peak-per-second", Collections.max(seconds.values()))
+                      .put("first(ms)", keyCounts.firstMillis.get());
+              if (keyCounts.durations != null) {
+                Histogram durations = keyCounts.durations.copy();
+                row.put("durations", durations.getTotalCount()).latency("duration", durations);
+              }
+            });
+    return report;
+  }
+
+  public void write(ExtensionContext context, String grp) throws Exception {
+    if (counts.isEmpty()) {
+      return;
+    }
+    writeLog(context, "server-events.csv", grp, toCsv());
+    report().write(context, grp);
+  }
+}
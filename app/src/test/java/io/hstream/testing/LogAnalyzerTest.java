@@ -0,0 +1,64 @@
+package io.hstream.testing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.output.OutputFrame;
+
+/** The matching of the rules of {@link LogAnalyzer} and the durations they extract. */
+public class LogAnalyzerTest {
+
+  private static void print(LogAnalyzer analyzer, String source, String text) {
+    Consumer<OutputFrame> consumer = analyzer.consumer(source);
+    consumer.accept(
+        new OutputFrame(OutputFrame.OutputType.STDOUT, text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  void testRulesIgnoreCase() {
+    LogAnalyzer analyzer = new LogAnalyzer(0);
+    print(analyzer, "hserver0", "[INFO] Rebalance of the consumers of sub_1\n");
+    print(analyzer, "hserver0", "[INFO] start to rebalance\n");
+    print(analyzer, "hserver0", "[INFO] REBALANCE done\n");
+    print(analyzer, "hserver0", "[INFO] rebal\n");
+    Assertions.assertEquals(3, analyzer.count("hserver0", "rebalance"));
+    Assertions.assertEquals(0, analyzer.count("hserver1", "rebalance"));
+  }
+
+  @Test
+  void testFramesAreSplitIntoLines() {
+    LogAnalyzer analyzer = new LogAnalyzer(0);
+    print(analyzer, "hserver0", "Receive Append Request\nReceive Ack\nReceive Append Request");
+    Assertions.assertEquals(2, analyzer.count("hserver0", "append"));
+    Assertions.assertEquals(1, analyzer.count("hserver0", "ack"));
+  }
+
+  @Test
+  void testAppendLatenciesAreExtracted() {
+    LogAnalyzer analyzer = new LogAnalyzer(0);
+    print(analyzer, "hserver0", "[DEBUG] Append to stream s took 1.5ms\n");
+    print(analyzer, "hserver0", "[DEBUG] append batch of 100 records, latency: 250us\n");
+    print(analyzer, "hserver0", "[DEBUG] Append done, elapsed=2s\n");
+    // an append without a duration is not an append latency
+    print(analyzer, "hserver0", "[DEBUG] Receive Append Request\n");
+    Assertions.assertEquals(3, analyzer.count("hserver0", "append-latency"));
+    Histogram durations = analyzer.durations("hserver0", "append-latency");
+    Assertions.assertEquals(3, durations.getTotalCount());
+    Assertions.assertEquals(250, durations.getMinValue());
+    Assertions.assertTrue(durations.valuesAreEquivalent(1500, durations.getValueAtPercentile(50)));
+    Assertions.assertTrue(durations.valuesAreEquivalent(2_000_000, durations.getMaxValue()));
+    Assertions.assertNull(analyzer.durations("hserver0", "append"));
+  }
+
+  @Test
+  void testDurationWithoutUnitIsInMilliseconds() {
+    LogAnalyzer analyzer =
+        new LogAnalyzer(0, List.of(new LogAnalyzer.Rule("flush", "flush", "flush took (\\d+)")));
+    print(analyzer, "hstore", "Flush took 12\n");
+    Histogram durations = analyzer.durations("hstore", "flush");
+    Assertions.assertTrue(durations.valuesAreEquivalent(12_000, durations.getMaxValue()));
+  }
+}
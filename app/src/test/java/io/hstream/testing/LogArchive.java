@@ -0,0 +1,410 @@
+package io.hstream.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The logs of a test run, compressed into {@code logs.gz} next to an index {@code logs.idx},
+ * instead of one plain file per entry: {@link TestUtils#writeLog} appends to it with {@code
+ * -Dlogs.archive=true}.
+ *
+ * <p>Each entry is cut into blocks of whole lines, each block a gzip member of its own, so {@code
+ * zcat logs.gz} still prints everything, while {@link #main} decompresses only the blocks around
+ * what it looks for. The index has a line per block with its entry, offset and length in the
+ * archive, its lines, the first and last timestamps found in them and how many lines mention {@code
+ * ERROR} or {@code WARN}.
+ */
+public class LogArchive {
+
+  public static final String ARCHIVE = "logs.gz";
+  public static final String INDEX = "logs.idx";
+  static final String INDEX_HEADER =
+      "entry,offset,length,first_line,lines,first_time,last_time,errors,warnings\n";
+  private static final int BLOCK_SIZE = 256 * 1024;
+
+  public static boolean isEnabled() {
+    return Boolean.getBoolean("logs.archive");
+  }
+
+  /** A block of the index. */
+  static class Block {
+    String entry;
+    long offset;
+    int length;
+    int firstLine;
+    int lines;
+    String firstTime = "";
+    String lastTime = "";
+    int errors;
+    int warnings;
+
+    String toCsv() {
+      return String.join(
+          ",",
+          entry,
+          String.valueOf(offset),
+          String.valueOf(length),
+          String.valueOf(firstLine),
+          String.valueOf(lines),
+          firstTime,
+          lastTime,
+          String.valueOf(errors),
+          String.valueOf(warnings));
+    }
+
+    static Block parse(String csv) {
+      String[] fields = csv.split(",", -1);
+      Block block = new Block();
+      block.entry = fields[0];
+      block.offset = Long.parseLong(fields[1]);
+      block.length = Integer.parseInt(fields[2]);
+      block.firstLine = Integer.parseInt(fields[3]);
+      block.lines = Integer.parseInt(fields[4]);
+      block.firstTime = fields[5];
+      block.lastTime = fields[6];
+      block.errors = Integer.parseInt(fields[7]);
+      block.warnings = Integer.parseInt(fields[8]);
+      return block;
+    }
+  }
+
+  /** Appends the entry to the archive of the directory. */
+  public static synchronized void append(Path dir, String entry, String logs) throws IOException {
+    Path archive = dir.resolve(ARCHIVE);
+    Path index = dir.resolve(INDEX);
+    boolean newIndex = !Files.exists(index);
+    long offset = Files.exists(archive) ? Files.size(archive) : 0;
+    try (OutputStream out = new FileOutputStream(archive.toFile(), true);
+        Writer indexWriter =
+            Files.newBufferedWriter(
+                index,
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND)) {
+      if (newIndex) {
+        indexWriter.write(INDEX_HEADER);
+      }
+      int begin = 0;
+      int line = 1;
+      String time = "";
+      while (begin < logs.length()) {
+        int end = Math.min(begin + BLOCK_SIZE, logs.length());
+        int newline = logs.lastIndexOf('\n', end - 1);
+        if (end < logs.length() && newline >= begin) {
+          end = newline + 1;
+        }
+        Block block = new Block();
+        block.entry = entry;
+        block.offset = offset;
+        block.firstLine = line;
+        int lineBegin = begin;
+        while (lineBegin < end) {
+          int lineEnd = logs.indexOf('\n', lineBegin);
+          lineEnd = lineEnd < 0 || lineEnd >= end ? end : lineEnd;
+          String lineTime = timestamp(logs, lineBegin, lineEnd);
+          if (lineTime != null) {
+            time = lineTime;
+            if (block.firstTime.isEmpty()) {
+              block.firstTime = time;
+            }
+          }
+          if (LogAnalyzer.contains(logs, lineBegin, lineEnd, "ERROR")) {
+            block.errors++;
+          } else if (LogAnalyzer.contains(logs, lineBegin, lineEnd, "WARN")) {
+            block.warnings++;
+          }
+          block.lines++;
+          lineBegin = lineEnd + 1;
+        }
+        block.lastTime = time;
+        if (block.firstTime.isEmpty()) {
+          block.firstTime = time;
+        }
+        byte[] compressed = gzip(logs.substring(begin, end));
+        out.write(compressed);
+        block.length = compressed.length;
+        indexWriter.write(block.toCsv());
+        indexWriter.write('\n');
+        offset += compressed.length;
+        line += block.lines;
+        begin = end;
+      }
+    }
+  }
+
+  private static byte[] gzip(String text) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip =
+        new GZIPOutputStream(bytes) {
+          {
+            def.setLevel(Deflater.BEST_SPEED);
+          }
+        }) {
+      gzip.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * The first {@code yyyy-MM-dd HH:mm:ss} or {@code yyyy-MM-ddTHH:mm:ss} of the line, with a T, or
+   * null if there is none.
+   */
+  static String timestamp(String text, int begin, int end) {
+    for (int i = begin; i + 19 <= end; i++) {
+      if (isDate(text, i)
+          && (text.charAt(i + 10) == 'T' || text.charAt(i + 10) == ' ')
+          && isTime(text, i + 11)) {
+        return text.substring(i, i + 10) + "T" + text.substring(i + 11, i + 19);
+      }
+    }
+    return null;
+  }
+
+  private static boolean isDate(String text, int i) {
+    return isDigits(text, i, 4)
+        && text.charAt(i + 4) == '-'
+        && isDigits(text, i + 5, 2)
+        && text.charAt(i + 7) == '-'
+        && isDigits(text, i + 8, 2);
+  }
+
+  private static boolean isTime(String text, int i) {
+    return isDigits(text, i, 2)
+        && text.charAt(i + 2) == ':'
+        && isDigits(text, i + 3, 2)
+        && text.charAt(i + 5) == ':'
+        && isDigits(text, i + 6, 2);
+  }
+
+  private static boolean isDigits(String text, int begin, int count) {
+    for (int i = begin; i < begin + count; i++) {
+      if (!Character.isDigit(text.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  static List<Block> readIndex(Path dir) throws IOException {
+    List<Block> blocks = new ArrayList<>();
+    List<String> lines = Files.readAllLines(dir.resolve(INDEX), StandardCharsets.UTF_8);
+    for (String line : lines.subList(1, lines.size())) {
+      if (!line.isEmpty()) {
+        blocks.add(Block.parse(line));
+      }
+    }
+    return blocks;
+  }
+
+  static String readBlock(Path dir, Block block) throws IOException {
+    byte[] compressed = new byte[block.length];
+    try (RandomAccessFile archive = new RandomAccessFile(dir.resolve(ARCHIVE).toFile(), "r")) {
+      archive.seek(block.offset);
+      archive.readFully(compressed);
+    }
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static final String USAGE =
+      "usage: LogArchive <dir> [--entry <entry>] [--from <time>] [--to <time>] [--grep <text> |"
+          + " --errors] [--context <lines>]\n"
+          + "  Lists the entries of the archive of <dir> without other options. Times are\n"
+          + "  prefixes of yyyy-MM-ddTHH:mm:ss, e.g. --from 2022-03-01T10:15 --to"
+          + " 2022-03-01T10:16.";
+
+  /**
+   * Prints the lines of the archive matching the options, with {@code --context} lines around them,
+   * decompressing only the blocks which can hold them.
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println(USAGE);
+      System.exit(2);
+    }
+    Path dir = Paths.get(args[0]);
+    String entry = null;
+    String from = null;
+    String to = null;
+    String grep = null;
+    int context = 0;
+    for (int i = 1; i < args.length; i++) {
+      switch (args[i]) {
+        case "--entry":
+          entry = args[++i];
+          break;
+        case "--from":
+          from = args[++i];
+          break;
+        case "--to":
+          to = args[++i];
+          break;
+        case "--grep":
+          grep = args[++i];
+          break;
+        case "--errors":
+          grep = "ERROR";
+          break;
+        case "--context":
+          context = Integer.parseInt(args[++i]);
+          break;
+        default:
+          System.err.println(USAGE);
+          System.exit(2);
+      }
+    }
+
+    List<Block> blocks = readIndex(dir);
+    if (entry == null && from == null && to == null && grep == null) {
+      blocks.stream()
+          .map(b -> b.entry)
+          .distinct()
+          .forEach(
+              e -> {
+                long lines = blocks.stream().filter(b -> b.entry.equals(e)).count();
+                System.out.println(e + " (" + lines + " blocks)");
+              });
+      return;
+    }
+    BlockLines blockLines = new BlockLines(dir, blocks);
+    // per entry, the last line printed, so that context lines are printed once
+    Map<String, Integer> lastPrinted = new HashMap<>();
+    for (int i = 0; i < blocks.size(); i++) {
+      Block block = blocks.get(i);
+      if ((entry != null && !block.entry.equals(entry))
+          || isAfter(block.firstTime, to)
+          || isBefore(block.lastTime, from)
+          || ("ERROR".equals(grep) && block.errors == 0)) {
+        continue;
+      }
+      // the context of the lines at the edges of the block is in the blocks around it
+      String[] before = new String[0];
+      String[] after = new String[0];
+      if (context > 0 && i > 0 && blocks.get(i - 1).entry.equals(block.entry)) {
+        String[] previous = blockLines.get(i - 1);
+        before =
+            Arrays.copyOfRange(previous, Math.max(0, previous.length - context), previous.length);
+      }
+      if (context > 0 && i + 1 < blocks.size() && blocks.get(i + 1).entry.equals(block.entry)) {
+        String[] next = blockLines.get(i + 1);
+        after = Arrays.copyOf(next, Math.min(context, next.length));
+      }
+      int printed =
+          print(
+              block,
+              before,
+              blockLines.get(i),
+              after,
+              from,
+              to,
+              grep,
+              context,
+              lastPrinted.getOrDefault(block.entry, 0));
+      lastPrinted.put(block.entry, printed);
+    }
+  }
+
+  /** The lines of the blocks, the last few of which are kept for the context of their neighbors. */
+  private static class BlockLines {
+    private final Path dir;
+    private final List<Block> blocks;
+    private final Map<Integer, String[]> cache =
+        new LinkedHashMap<>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > 3;
+          }
+        };
+
+    BlockLines(Path dir, List<Block> blocks) {
+      this.dir = dir;
+      this.blocks = blocks;
+    }
+
+    String[] get(int i) throws IOException {
+      String[] lines = cache.get(i);
+      if (lines == null) {
+        // blocks end with a newline, which split drops
+        lines = readBlock(dir, blocks.get(i)).split("\n");
+        cache.put(i, lines);
+      }
+      return lines;
+    }
+  }
+
+  /** Whether the time is before {@code from}, false for lines without a time. */
+  private static boolean isBefore(String time, String from) {
+    return from != null && !time.isEmpty() && time.compareTo(from) < 0;
+  }
+
+  /** Whether the time is after {@code to}, a prefix: 10:16 ends with the last line of 10:16. */
+  private static boolean isAfter(String time, String to) {
+    return to != null
+        && !time.isEmpty()
+        && time.substring(0, Math.min(time.length(), to.length())).compareTo(to) > 0;
+  }
+
+  /**
+   * Prints the matching lines of the block with their context, which may be in the lines {@code
+   * before} and {@code after} it, but not the lines up to {@code lastPrinted}, already printed.
+   *
+   * @return the last line printed
+   */
+  private static int print(
+      Block block,
+      String[] before,
+      String[] lines,
+      String[] after,
+      String from,
+      String to,
+      String grep,
+      int context,
+      int lastPrinted) {
+    String time = block.firstTime;
+    for (int i = 0; i < lines.length; i++) {
+      String lineTime = timestamp(lines[i], 0, lines[i].length());
+      time = lineTime != null ? lineTime : time;
+      if (isBefore(time, from) || isAfter(time, to) || (grep != null && !lines[i].contains(grep))) {
+        continue;
+      }
+      for (int j = Math.max(i - context, -before.length);
+          j <= Math.min(i + context, lines.length - 1 + after.length);
+          j++) {
+        int line = block.firstLine + j;
+        if (line <= lastPrinted) {
+          continue;
+        }
+        String text =
+            j < 0
+                ? before[before.length + j]
+                : j < lines.length ? lines[j] : after[j - lines.length];
+        System.out.println(block.entry + ":" + line + ": " + text);
+        lastPrinted = line;
+      }
+    }
+    return lastPrinted;
+  }
+}
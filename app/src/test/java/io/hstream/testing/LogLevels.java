@@ -0,0 +1,20 @@
+package io.hstream.testing;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The log levels of the cluster of the annotated test class, over those of the {@code
+ * -Dlog.profile} of the run: see {@link LogSettings}. An empty level keeps the one of the profile.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface LogLevels {
+  /** The {@code --log-level} of the HServers. */
+  String server() default "";
+
+  /** The {@code --loglevel} of {@code ld-dev-cluster}. */
+  String store() default "";
+}
@@ -0,0 +1,81 @@
+package io.hstream.testing;
+
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * How verbose the HServers and HStore of a test are. Debug logging on the write path costs
+ * throughput, so benchmark numbers are only comparable under the same settings, which are written
+ * in the header of every {@link BenchmarkReport}.
+ *
+ * <p>The settings come from, by increasing precedence: the {@code -Dlog.profile} of the run, {@code
+ * debug} (the default) or {@code performance}; the {@link LogLevels} of the test class; and {@code
+ * -Dlog.server.level}, {@code -Dlog.store.level} and {@code -Dlog.color}.
+ */
+public class LogSettings {
+
+  private static final ExtensionContext.Namespace NAMESPACE =
+      ExtensionContext.Namespace.create(LogSettings.class);
+
+  final String profile;
+  final String serverLevel;
+  /** Null for the default of {@code ld-dev-cluster}. */
+  final String storeLevel;
+
+  final boolean color;
+
+  LogSettings(String profile, String serverLevel, String storeLevel, boolean color) {
+    this.profile = profile;
+    this.serverLevel = serverLevel;
+    this.storeLevel = storeLevel;
+    this.color = color;
+  }
+
+  static LogSettings profile(String profile) {
+    switch (profile) {
+      case "debug":
+        return new LogSettings(profile, "debug", null, true);
+      case "performance":
+        return new LogSettings(profile, "warning", "warning", false);
+      default:
+        throw new IllegalArgumentException(
+            "unknown log profile " + profile + ", expected debug or performance");
+    }
+  }
+
+  /** The settings of the test, which are also kept in its store for {@link #of}. */
+  public static LogSettings resolve(ExtensionContext context) {
+    LogSettings profile = profile(System.getProperty("log.profile", "debug"));
+    String serverLevel = profile.serverLevel;
+    String storeLevel = profile.storeLevel;
+    LogLevels levels = context.getRequiredTestClass().getAnnotation(LogLevels.class);
+    if (levels != null) {
+      serverLevel = levels.server().isEmpty() ? serverLevel : levels.server();
+      storeLevel = levels.store().isEmpty() ? storeLevel : levels.store();
+    }
+    LogSettings settings =
+        new LogSettings(
+            profile.profile,
+            System.getProperty("log.server.level", serverLevel),
+            System.getProperty("log.store.level", storeLevel),
+            Boolean.parseBoolean(System.getProperty("log.color", String.valueOf(profile.color))));
+    context.getStore(NAMESPACE).put(LogSettings.class, settings);
+    return settings;
+  }
+
+  /** The settings the extension resolved for the test, null outside of a cluster test. */
+  public static LogSettings of(ExtensionContext context) {
+    return context.getStore(NAMESPACE).get(LogSettings.class, LogSettings.class);
+  }
+
+  @Override
+  public String toString() {
+    return "log-profile="
+        + profile
+        + " server-log-level="
+        + serverLevel
+        + " store-log-level="
+        + (storeLevel == null ? "default" : storeLevel)
+        + " log-color="
+        + color;
+  }
+}
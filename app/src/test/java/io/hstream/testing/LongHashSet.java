@@ -0,0 +1,159 @@
+package io.hstream.testing;
+
+import java.util.function.LongConsumer;
+
+/**
+ * A set of longs backed by one open-addressing array with linear probing, i.e. 8 to 16 bytes per
+ * element instead of a boxed Long and a hash node. Like {@link java.util.HashSet} it is not
+ * thread-safe.
+ */
+public class LongHashSet {
+
+  private static final long EMPTY = 0;
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private long[] slots;
+  private int size;
+  // EMPTY marks free slots, so whether the set holds it is kept aside
+  private boolean hasEmpty;
+
+  public LongHashSet() {
+    this(16);
+  }
+
+  public LongHashSet(int expectedSize) {
+    slots = new long[capacityFor(expectedSize)];
+  }
+
+  private static int capacityFor(int expectedSize) {
+    long capacity = Long.highestOneBit(Math.max(4, expectedSize * 4L / 3) * 2 - 1);
+    if (capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("too many elements: " + expectedSize);
+    }
+    return (int) capacity;
+  }
+
+  /** A mix of the bits of the key, as in the finalizer of MurmurHash3. */
+  static long mix(long key) {
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    key *= 0xC4CEB9FE1A85EC53L;
+    key ^= key >>> 33;
+    return key;
+  }
+
+  public boolean add(long key) {
+    if (key == EMPTY) {
+      if (hasEmpty) {
+        return false;
+      }
+      hasEmpty = true;
+      size++;
+      return true;
+    }
+    int mask = slots.length - 1;
+    for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+      if (slots[i] == key) {
+        return false;
+      }
+      if (slots[i] == EMPTY) {
+        slots[i] = key;
+        if (++size > slots.length / 4 * 3) {
+          grow();
+        }
+        return true;
+      }
+    }
+  }
+
+  public boolean contains(long key) {
+    if (key == EMPTY) {
+      return hasEmpty;
+    }
+    int mask = slots.length - 1;
+    for (int i = (int) mix(key) & mask; ; i = (i + 1) & mask) {
+      if (slots[i] == key) {
+        return true;
+      }
+      if (slots[i] == EMPTY) {
+        return false;
+      }
+    }
+  }
+
+  private void grow() {
+    if (slots.length == MAX_CAPACITY) {
+      throw new IllegalStateException("LongHashSet is full");
+    }
+    long[] old = slots;
+    slots = new long[old.length * 2];
+    int mask = slots.length - 1;
+    for (long key : old) {
+      if (key != EMPTY) {
+        int i = (int) mix(key) & mask;
+        while (slots[i] != EMPTY) {
+          i = (i + 1) & mask;
+        }
+        slots[i] = key;
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void forEach(LongConsumer action) {
+    if (hasEmpty) {
+      action.accept(EMPTY);
+    }
+    for (long key : slots) {
+      if (key != EMPTY) {
+        action.accept(key);
+      }
+    }
+  }
+
+  public boolean containsAll(LongHashSet other) {
+    if (other.hasEmpty && !hasEmpty) {
+      return false;
+    }
+    for (long key : other.slots) {
+      if (key != EMPTY && !contains(key)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof LongHashSet)) {
+      return false;
+    }
+    LongHashSet that = (LongHashSet) o;
+    return size == that.size && containsAll(that);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hasEmpty ? 1 : 0;
+    for (long key : slots) {
+      h += Long.hashCode(key);
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    return "LongHashSet{size=" + size + "}";
+  }
+}
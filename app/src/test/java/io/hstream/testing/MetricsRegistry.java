@@ -0,0 +1,123 @@
+package io.hstream.testing;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.junit.jupiter.api.extension.ExtensionContext;
+
+/**
+ * The metrics of the clients of a test, filled by {@link Instrumented}. The extensions create one
+ * per test, kept in its store, so that concurrent tests don't record into each other's. Recording
+ * only touches lock-free counters and HdrHistogram recorders; callers look their meters up once and
+ * keep them.
+ *
+ * <p>Only the {@code hStreamClient} field of the test is instrumented for it: clients the test
+ * builds otherwise record nothing unless it wraps them with {@link Instrumented#client}, passing
+ * {@link #of} its context.
+ */
+public class MetricsRegistry {
+
+  private static final ExtensionContext.Namespace NAMESPACE =
+      ExtensionContext.Namespace.create(MetricsRegistry.class);
+
+  private final Map<String, Meter> meters = new ConcurrentSkipListMap<>();
+  private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+  private final Map<String, Recorder> histograms = new ConcurrentSkipListMap<>();
+
+  /** A new registry of the test, which is also kept in its store for {@link #of}. */
+  public static MetricsRegistry resolve(ExtensionContext context) {
+    MetricsRegistry registry = new MetricsRegistry();
+    context.getStore(NAMESPACE).put(MetricsRegistry.class, registry);
+    return registry;
+  }
+
+  /** The registry the extension created for the test, null outside of a cluster test. */
+  public static MetricsRegistry of(ExtensionContext context) {
+    return context.getStore(NAMESPACE).get(MetricsRegistry.class, MetricsRegistry.class);
+  }
+
+  /** A count, and the rate at which it grew from its first to its last increment. */
+  public static class Meter {
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator first = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator last = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    public void mark(long n) {
+      long now = System.nanoTime();
+      count.add(n);
+      first.accumulate(now);
+      last.accumulate(now);
+    }
+
+    public void mark() {
+      mark(1);
+    }
+
+    public long count() {
+      return count.sum();
+    }
+
+    public double perSecond() {
+      long elapsed = last.get() - first.get();
+      return elapsed > 0 ? count.sum() / (elapsed / 1e9) : 0;
+    }
+  }
+
+  /** A value going up and down, and the highest it reached. */
+  public static class Gauge {
+    private final AtomicLong value = new AtomicLong();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void increment() {
+      max.accumulate(value.incrementAndGet());
+    }
+
+    public void decrement() {
+      value.decrementAndGet();
+    }
+
+    public long max() {
+      return max.get();
+    }
+  }
+
+  public Meter meter(String name) {
+    return meters.computeIfAbsent(name, n -> new Meter());
+  }
+
+  public Gauge gauge(String name) {
+    return gauges.computeIfAbsent(name, n -> new Gauge());
+  }
+
+  public Recorder histogram(String name) {
+    return histograms.computeIfAbsent(name, n -> new Recorder(3));
+  }
+
+  public boolean isEmpty() {
+    return meters.isEmpty() && gauges.isEmpty() && histograms.isEmpty();
+  }
+
+  public BenchmarkReport report() {
+    BenchmarkReport report = new BenchmarkReport("client-metrics");
+    meters.forEach(
+        (name, meter) ->
+            report.row(name).put("count", meter.count()).put("per-second", meter.perSecond()));
+    gauges.forEach((name, gauge) -> report.row(name).put("max", gauge.max()));
+    histograms.forEach(
+        (name, recorder) -> {
+          Histogram histogram = recorder.getIntervalHistogram();
+          report
+              .row(name)
+              .put("count", histogram.getTotalCount())
+              .put("mean", histogram.getMean())
+              .put("p50", histogram.getValueAtPercentile(50))
+              .put("p99", histogram.getValueAtPercentile(99))
+              .put("max", histogram.getMaxValue());
+        });
+    return report;
+  }
+}
@@ -0,0 +1,200 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.buildRecord;
+import static io.hstream.testing.TestUtils.consume;
+import static io.hstream.testing.TestUtils.doProduce;
+import static io.hstream.testing.TestUtils.makeBufferedProducer;
+import static io.hstream.testing.TestUtils.randStream;
+import static io.hstream.testing.TestUtils.randSubscription;
+
+import io.hstream.BufferedProducer;
+import io.hstream.HStreamClient;
+import io.hstream.testing.ToxiproxyNetwork.Impairment;
+import io.hstream.testing.ToxiproxyNetwork.Link;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+@WithToxiproxy
+@ExtendWith(ClusterExtension.class)
+public class NetworkImpairmentTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(NetworkImpairmentTest.class);
+  private static final long[] LATENCIES_MS = {0, 2, 10, 50, 100};
+  private static final int[] BATCH_SIZES = {1, 16, 256};
+  private static final int PAYLOAD_SIZE = 1024;
+  private static final int RECORD_COUNT = 2048;
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+  private ToxiproxyNetwork network;
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  public void setToxiproxyNetwork(ToxiproxyNetwork network) {
+    this.network = network;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    network.heal();
+    hStreamClient.close();
+  }
+
+  /** Writes {@link #RECORD_COUNT} records and reports throughput and write latency. */
+  private void benchmarkProduce(BenchmarkReport.Row row, BufferedProducer producer) {
+    PayloadGenerator generator = new PayloadGenerator(0);
+    Histogram latencies = new ConcurrentHistogram(3);
+    CompletableFuture<?>[] futures = new CompletableFuture[RECORD_COUNT];
+    long begin = System.nanoTime();
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      byte[] payload = generator.next(PAYLOAD_SIZE);
+      long writeBegin = System.nanoTime();
+      futures[i] =
+          producer
+              .write(buildRecord(payload))
+              .whenComplete(
+                  (id, e) -> latencies.recordValue((System.nanoTime() - writeBegin) / 1000));
+    }
+    CompletableFuture.allOf(futures).join();
+    row.throughput(RECORD_COUNT, (long) RECORD_COUNT * PAYLOAD_SIZE, System.nanoTime() - begin)
+        .latency("write", latencies);
+  }
+
+  /** Consumes {@code count} records from a new subscription and reports the throughput. */
+  private void benchmarkConsume(BenchmarkReport.Row row, String stream, int count)
+      throws Exception {
+    String subscription = randSubscription(hStreamClient, stream);
+    AtomicInteger received = new AtomicInteger();
+    AtomicLong firstReceived = new AtomicLong();
+    long begin = System.nanoTime();
+    consume(
+        hStreamClient,
+        subscription,
+        "c1",
+        120,
+        receivedRawRecord -> {
+          firstReceived.compareAndSet(0, System.nanoTime());
+          return received.incrementAndGet() < count;
+        });
+    long end = System.nanoTime();
+    row.put("first-record(ms)", (firstReceived.get() - begin) / 1_000_000)
+        .throughput(count, (long) count * PAYLOAD_SIZE, end - firstReceived.get());
+    Assertions.assertEquals(count, received.get());
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @Test
+  @Timeout(900)
+  void testProducerBatchingUnderLatency() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("producer-batching-under-latency");
+    // created before the network is impaired
+    Iterator<String> streams;
+    try (Provisioner provisioner = new Provisioner(hStreamClient)) {
+      streams =
+          provisioner.createStreams(LATENCIES_MS.length * BATCH_SIZES.length, (short) 3).iterator();
+    }
+    for (long latency : LATENCIES_MS) {
+      Impairment impairment = Impairment.none().withLatency(latency, latency / 10);
+      network.impair(Link.CLIENT_TO_SERVER, impairment);
+      for (int batchSize : BATCH_SIZES) {
+        BufferedProducer producer = makeBufferedProducer(hStreamClient, streams.next(), batchSize);
+        var row = report.row("rtt=" + latency + "ms,batch=" + batchSize);
+        row.put("impairment", impairment);
+        benchmarkProduce(row, producer);
+        producer.close();
+      }
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+
+  @Test
+  @Timeout(900)
+  void testConsumerThroughputUnderLatency() throws Exception {
+    String stream = randStream(hStreamClient);
+    BufferedProducer producer = makeBufferedProducer(hStreamClient, stream, 256);
+    doProduce(producer, PAYLOAD_SIZE, RECORD_COUNT);
+    producer.close();
+
+    BenchmarkReport report = new BenchmarkReport("consumer-throughput-under-latency");
+    for (long latency : LATENCIES_MS) {
+      Impairment impairment = Impairment.none().withLatency(latency, latency / 10);
+      network.impair(Link.CLIENT_TO_SERVER, impairment);
+      var row = report.row("rtt=" + latency + "ms");
+      row.put("impairment", impairment);
+      benchmarkConsume(row, stream, RECORD_COUNT);
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+
+  @Test
+  @Timeout(900)
+  void testCrossZoneProfiles() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("cross-zone-profiles");
+    Impairment[] profiles = {
+      Impairment.none(),
+      Impairment.none().withLatency(2, 1),
+      Impairment.none().withLatency(2, 1).withBandwidth(10 * 1024),
+      Impairment.none().withLatency(2, 1).withLoss(1),
+      Impairment.none().withLatency(50, 10).withBandwidth(1024),
+    };
+    for (Impairment impairment : profiles) {
+      for (boolean serverToServer : new boolean[] {false, true}) {
+        network.heal();
+        network.impair(Link.CLIENT_TO_SERVER, impairment);
+        if (serverToServer) {
+          network.impair(Link.SERVER_TO_SERVER, impairment);
+        }
+        String scenario = impairment + (serverToServer ? ",server-to-server" : "");
+        String stream = randStream(hStreamClient);
+        BufferedProducer producer = makeBufferedProducer(hStreamClient, stream, 256);
+        benchmarkProduce(report.row("produce:" + scenario), producer);
+        producer.close();
+        benchmarkConsume(report.row("consume:" + scenario), stream, RECORD_COUNT);
+      }
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+}
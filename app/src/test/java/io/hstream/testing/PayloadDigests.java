@@ -0,0 +1,128 @@
+package io.hstream.testing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A growable sequence of 64-bit payload digests, used to verify deliveries without keeping the
+ * payloads themselves: its footprint is 8 bytes per record whatever the payload size.
+ *
+ * <p>Two sequences are equal if they hold the same digests in the same order; compare {@link
+ * #sorted()} copies to ignore the order. Like the lists it replaces, it is not thread-safe.
+ */
+public class PayloadDigests {
+
+  private static final VarHandle LONG_VIEW =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  // primes of xxHash64
+  private static final long PRIME_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME_3 = 0x165667B19E3779F9L;
+
+  private long[] digests;
+  private int size;
+
+  public PayloadDigests() {
+    this(16);
+  }
+
+  public PayloadDigests(int capacity) {
+    digests = new long[Math.max(capacity, 1)];
+  }
+
+  /** A 64-bit hash of the payload, in the spirit of xxHash64. */
+  public static long digest(byte[] payload) {
+    long h = PRIME_3 + payload.length * PRIME_1;
+    int i = 0;
+    for (; i + 8 <= payload.length; i += 8) {
+      long k = Long.rotateLeft((long) LONG_VIEW.get(payload, i) * PRIME_2, 31) * PRIME_1;
+      h = Long.rotateLeft(h ^ k, 27) * PRIME_1 + PRIME_3;
+    }
+    for (; i < payload.length; i++) {
+      h = Long.rotateLeft(h ^ ((payload[i] & 0xFFL) * PRIME_3), 11) * PRIME_1;
+    }
+    h ^= h >>> 33;
+    h *= PRIME_2;
+    h ^= h >>> 29;
+    h *= PRIME_3;
+    h ^= h >>> 32;
+    return h;
+  }
+
+  public void add(byte[] payload) {
+    addDigest(digest(payload));
+  }
+
+  public void addDigest(long digest) {
+    if (size == digests.length) {
+      digests = Arrays.copyOf(digests, digests.length * 2);
+    }
+    digests[size++] = digest;
+  }
+
+  public void addAll(PayloadDigests other) {
+    for (int i = 0; i < other.size; i++) {
+      addDigest(other.digests[i]);
+    }
+  }
+
+  public long get(int i) {
+    if (i >= size) {
+      throw new IndexOutOfBoundsException(i + " >= " + size);
+    }
+    return digests[i];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /** A copy holding the same digests in ascending order, to compare as multisets. */
+  public PayloadDigests sorted() {
+    PayloadDigests copy = new PayloadDigests(size);
+    System.arraycopy(digests, 0, copy.digests, 0, size);
+    copy.size = size;
+    Arrays.sort(copy.digests, 0, size);
+    return copy;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof PayloadDigests)) {
+      return false;
+    }
+    PayloadDigests that = (PayloadDigests) o;
+    return Arrays.equals(digests, 0, size, that.digests, 0, that.size);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 1;
+    for (int i = 0; i < size; i++) {
+      h = 31 * h + Long.hashCode(digests[i]);
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("PayloadDigests{size=").append(size).append(", [");
+    for (int i = 0; i < Math.min(size, 8); i++) {
+      sb.append(i == 0 ? "" : ", ").append(Long.toHexString(digests[i]));
+    }
+    return sb.append(size > 8 ? ", ...]}" : "]}").toString();
+  }
+}
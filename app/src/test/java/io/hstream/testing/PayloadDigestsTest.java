@@ -0,0 +1,86 @@
+package io.hstream.testing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The delivery checks {@link PayloadDigests} stand for: records of one producer delivered in place
+ * of those of another change the digests, as they changed the payload strings compared before.
+ */
+public class PayloadDigestsTest {
+
+  private static final int COUNT = 64;
+
+  /** The digests of the first {@code COUNT} payloads of each producer, one batch after another. */
+  private static PayloadDigests written(int payloadSize, int... producers) {
+    PayloadDigests digests = new PayloadDigests();
+    for (int producer : producers) {
+      PayloadGenerator generator = new PayloadGenerator(producer);
+      for (int i = 0; i < COUNT; i++) {
+        digests.add(generator.next(payloadSize));
+      }
+    }
+    return digests;
+  }
+
+  /** {@code digests} with record {@code i} replaced by {@code digest}. */
+  private static PayloadDigests replaced(PayloadDigests digests, int i, long digest) {
+    PayloadDigests copy = new PayloadDigests(digests.size());
+    for (int j = 0; j < digests.size(); j++) {
+      copy.addDigest(j == i ? digest : digests.get(j));
+    }
+    return copy;
+  }
+
+  @Test
+  void testProducersWriteDistinctPayloads() {
+    for (int payloadSize : new int[] {4, DeliveryVerifier.HEADER_SIZE, 1024}) {
+      PayloadDigests first = written(payloadSize, 0);
+      PayloadDigests second = written(payloadSize, 1);
+      Assertions.assertEquals(written(payloadSize, 0), first);
+      Assertions.assertNotEquals(first.sorted(), second.sorted());
+      Assertions.assertEquals(2 * COUNT, distinct(written(payloadSize, 0, 1)));
+    }
+  }
+
+  @Test
+  void testRecordOfAnotherProducerChangesTheDigests() {
+    for (int payloadSize : new int[] {4, 1024}) {
+      PayloadDigests records = written(payloadSize, 0, 1);
+      // record 3 of the second batch delivered in place of record 3 of the first
+      PayloadDigests swapped = replaced(records, 3, records.get(COUNT + 3));
+      Assertions.assertEquals(records.size(), swapped.size());
+      Assertions.assertNotEquals(records.sorted(), swapped.sorted());
+    }
+  }
+
+  @Test
+  void testDuplicateOfAnotherProducerChangesTheDigests() {
+    PayloadDigests records = written(1024, 0, 1);
+    // the last record of the first batch lost, and one of the second delivered twice instead
+    PayloadDigests duplicated = replaced(records, COUNT - 1, records.get(COUNT));
+    Assertions.assertNotEquals(records.sorted(), duplicated.sorted());
+  }
+
+  @Test
+  void testReorderedRecordsHaveTheSameSortedDigests() {
+    PayloadDigests records = written(1024, 0, 1);
+    PayloadDigests reordered = new PayloadDigests();
+    for (int i = records.size() - 1; i >= 0; i--) {
+      reordered.addDigest(records.get(i));
+    }
+    Assertions.assertNotEquals(records, reordered);
+    Assertions.assertEquals(records.sorted(), reordered.sorted());
+  }
+
+  private static int distinct(PayloadDigests digests) {
+    PayloadDigests sorted = digests.sorted();
+    int distinct = sorted.isEmpty() ? 0 : 1;
+    for (int i = 1; i < sorted.size(); i++) {
+      if (sorted.get(i) != sorted.get(i - 1)) {
+        distinct++;
+      }
+    }
+    return distinct;
+  }
+}
@@ -0,0 +1,128 @@
+package io.hstream.testing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Deterministic random payloads, generated into a reused buffer.
+ *
+ * <p>The payload of record {@code seq} of {@code producer} is a function of the suite's seed and of
+ * these two numbers only: payloads start with the {@link DeliveryVerifier} header when they are
+ * large enough to hold it, and the rest is the SplitMix64 stream (the generator behind {@link
+ * java.util.SplittableRandom}) started from a state derived from the three. So a consumer can
+ * {@link #matches check} a payload by regenerating it instead of storing what was written, and a
+ * failed run is reproduced by rerunning it with {@code -Dpayload.seed=} its seed, which the
+ * extensions write to the logs of every test.
+ *
+ * <p>A generator belongs to one producing thread: {@link #next} returns the same buffer every time,
+ * which is fine because the client copies payloads when records are written.
+ */
+public class PayloadGenerator {
+
+  private static final Logger logger = LoggerFactory.getLogger(PayloadGenerator.class);
+  private static final VarHandle LONG_VIEW =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+  private static final long SEED = initialSeed();
+
+  private final int producer;
+  private long seq;
+  private byte[] buffer = new byte[0];
+
+  /**
+   * A generator of the payloads of {@code producer}, which the caller numbers itself, e.g. by the
+   * index of its producing thread: ids handed out in the order threads ask for them would not be
+   * the same from one run to the next.
+   */
+  public PayloadGenerator(int producer) {
+    this.producer = producer;
+  }
+
+  private static long initialSeed() {
+    String property = System.getProperty("payload.seed");
+    long seed =
+        property != null ? Long.parseLong(property) : ThreadLocalRandom.current().nextLong();
+    logger.info("payload seed is {}, rerun with -Dpayload.seed={} to reproduce", seed, seed);
+    return seed;
+  }
+
+  public static long seed() {
+    return SEED;
+  }
+
+  public int producer() {
+    return producer;
+  }
+
+  /** The sequence number of the next payload. */
+  public long sequence() {
+    return seq;
+  }
+
+  /** The next payload, in a buffer which is overwritten by the next call. */
+  public byte[] next(int size) {
+    if (buffer.length != size) {
+      buffer = new byte[size];
+    }
+    fill(buffer, SEED, producer, seq++);
+    return buffer;
+  }
+
+  /** The next payload, in a new array. */
+  public byte[] nextCopy(int size) {
+    byte[] payload = new byte[size];
+    fill(payload, SEED, producer, seq++);
+    return payload;
+  }
+
+  /** The payload of record {@code seq} of {@code producer}, as generated with this seed. */
+  public static byte[] regenerate(long seed, int producer, long seq, int size) {
+    byte[] payload = new byte[size];
+    fill(payload, seed, producer, seq);
+    return payload;
+  }
+
+  /**
+   * Whether the payload is the one generated for the producer and sequence number of its header.
+   * Payloads too small for a header cannot be checked.
+   */
+  public static boolean matches(byte[] payload) {
+    if (payload.length < DeliveryVerifier.HEADER_SIZE) {
+      throw new IllegalArgumentException(payload.length + " bytes payloads have no header");
+    }
+    int producer = DeliveryVerifier.producerOf(payload);
+    long seq = DeliveryVerifier.sequenceOf(payload);
+    return Arrays.equals(payload, regenerate(SEED, producer, seq, payload.length));
+  }
+
+  private static void fill(byte[] payload, long seed, int producer, long seq) {
+    int offset = 0;
+    if (payload.length >= DeliveryVerifier.HEADER_SIZE) {
+      DeliveryVerifier.stamp(payload, producer, seq);
+      offset = DeliveryVerifier.HEADER_SIZE;
+    }
+    long state = mix64(mix64(seed ^ producer * GOLDEN_GAMMA) + seq);
+    for (; offset + Long.BYTES <= payload.length; offset += Long.BYTES) {
+      state += GOLDEN_GAMMA;
+      LONG_VIEW.set(payload, offset, mix64(state));
+    }
+    if (offset < payload.length) {
+      long last = mix64(state + GOLDEN_GAMMA);
+      for (; offset < payload.length; offset++, last >>>= 8) {
+        payload[offset] = (byte) last;
+      }
+    }
+  }
+
+  /** The output function of SplitMix64. */
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
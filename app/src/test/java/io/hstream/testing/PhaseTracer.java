@@ -0,0 +1,109 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.writeLog;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.api.extension.InvocationInterceptor;
+
+/**
+ * Times the phases of a test run, from the start of the containers to their stop, as consecutive
+ * spans: starting a phase ends the previous one. The phases are published as report entries and
+ * written as {@code trace.json}, in the Chrome trace event format, which chrome://tracing and
+ * https://ui.perfetto.dev open.
+ */
+public class PhaseTracer {
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private final long begin = System.nanoTime();
+  private final List<Span> spans = new ArrayList<>();
+  private Span current;
+
+  private static class Span {
+    private final String name;
+    private final long beginNanos;
+    private long endNanos;
+
+    Span(String name, long beginNanos) {
+      this.name = name;
+      this.beginNanos = beginNanos;
+    }
+  }
+
+  /** Ends the current phase, if any, and begins the named one. */
+  public synchronized void phase(String name) {
+    long now = System.nanoTime();
+    end(now);
+    current = new Span(name, now);
+    spans.add(current);
+  }
+
+  public synchronized void end() {
+    end(System.nanoTime());
+  }
+
+  private void end(long now) {
+    if (current != null) {
+      current.endNanos = now;
+      current = null;
+    }
+  }
+
+  /** Runs an invocation of the test as a phase, for the interceptors of the extensions. */
+  public void trace(String name, InvocationInterceptor.Invocation<Void> invocation)
+      throws Throwable {
+    phase(name);
+    try {
+      invocation.proceed();
+    } finally {
+      end();
+    }
+  }
+
+  /** The milliseconds spent in each phase, phases of the same name added up. */
+  public synchronized Map<String, Long> durations() {
+    Map<String, Long> durations = new LinkedHashMap<>();
+    for (Span span : spans) {
+      durations.merge(span.name, (span.endNanos - span.beginNanos) / 1_000_000, Long::sum);
+    }
+    return durations;
+  }
+
+  public synchronized String toChromeTrace(String testName) {
+    ObjectNode trace = mapper.createObjectNode();
+    ArrayNode events = trace.putArray("traceEvents");
+    events
+        .addObject()
+        .put("name", "process_name")
+        .put("ph", "M")
+        .put("pid", 1)
+        .putObject("args")
+        .put("name", testName);
+    for (Span span : spans) {
+      events
+          .addObject()
+          .put("name", span.name)
+          .put("ph", "X")
+          .put("ts", (span.beginNanos - begin) / 1000)
+          .put("dur", (span.endNanos - span.beginNanos) / 1000)
+          .put("pid", 1)
+          .put("tid", 1);
+    }
+    return trace.toString();
+  }
+
+  /** Ends the current phase, then publishes the phases and writes the trace. */
+  public void write(ExtensionContext context, String grp) throws Exception {
+    end();
+    Map<String, String> entries = new LinkedHashMap<>();
+    durations().forEach((name, millis) -> entries.put("phase-" + name + "(ms)", millis.toString()));
+    context.publishReportEntry(entries);
+    writeLog(context, "trace.json", grp, toChromeTrace(context.getDisplayName()));
+  }
+}
@@ -0,0 +1,102 @@
+package io.hstream.testing;
+
+import io.hstream.Producer;
+import io.hstream.Record;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Writes records with at most {@code window} writes in flight, like our production producers bound
+ * outstanding writes: {@link #write} blocks until a pending write completes when the window is
+ * full. Completions are handled in callbacks, which record the latency of every write in
+ * microseconds, so nothing is kept per record.
+ *
+ * <p>With a {@link io.hstream.BufferedProducer}, writes only complete when their batch is flushed,
+ * so the window must be larger than the batch size unless batches are flushed by age.
+ */
+public class PipelinedWriter {
+
+  /** The window of {@link TestUtils#produce}, overridden with {@code -Dproduce.window=}. */
+  public static final int DEFAULT_WINDOW = Integer.getInteger("produce.window", 4096);
+
+  private final Producer producer;
+  private final int window;
+  private final Semaphore inFlight;
+  private final Histogram latencies = new ConcurrentHistogram(3);
+  private final LongAdder completed = new LongAdder();
+  private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+  public PipelinedWriter(Producer producer, int window) {
+    if (window < 1) {
+      throw new IllegalArgumentException("window must be positive, got " + window);
+    }
+    this.producer = producer;
+    this.window = window;
+    this.inFlight = new Semaphore(window);
+  }
+
+  public void write(Record record) throws InterruptedException {
+    write(record, null);
+  }
+
+  /**
+   * Writes the record once a slot of the window is free. The callback, if any, receives the record
+   * id or the error on the thread completing the write.
+   */
+  public void write(Record record, BiConsumer<String, Throwable> callback)
+      throws InterruptedException {
+    inFlight.acquire();
+    long begin = System.nanoTime();
+    CompletableFuture<String> future;
+    try {
+      future = producer.write(record);
+    } catch (RuntimeException e) {
+      inFlight.release();
+      throw e;
+    }
+    future.whenComplete(
+        (id, e) -> {
+          latencies.recordValue((System.nanoTime() - begin) / 1000);
+          completed.increment();
+          if (e != null) {
+            firstError.compareAndSet(null, e);
+          }
+          try {
+            if (callback != null) {
+              callback.accept(id, e);
+            }
+          } finally {
+            inFlight.release();
+          }
+        });
+  }
+
+  /** Waits until every write completed, failing with the first error any of them had. */
+  public void awaitCompletion() throws InterruptedException {
+    inFlight.acquire(window);
+    inFlight.release(window);
+    Throwable e = firstError.get();
+    if (e != null) {
+      throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+    }
+  }
+
+  public int window() {
+    return window;
+  }
+
+  public long completed() {
+    return completed.sum();
+  }
+
+  /** Write latencies in microseconds. */
+  public Histogram latencies() {
+    return latencies;
+  }
+}
@@ -0,0 +1,199 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.randStream;
+import static io.hstream.testing.TestUtils.randSubscription;
+
+import io.hstream.HStreamClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creates streams and subscriptions concurrently, at most {@code parallelism} at a time, and keeps
+ * pools of streams created ahead of time, one per replication factor, which tests take from without
+ * waiting. Resources live as long as the cluster of the test, so a provisioner belongs to one test
+ * and is closed when the test is done with it, by try-with-resources or in its teardown; pooled
+ * streams which were not taken are left to go away with the cluster.
+ */
+public class Provisioner implements AutoCloseable {
+
+  public static final int DEFAULT_PARALLELISM = Integer.getInteger("provision.parallelism", 16);
+  private static final long TIMEOUT_SECONDS = 30;
+
+  private static final Logger logger = LoggerFactory.getLogger(Provisioner.class);
+  private final HStreamClient client;
+  private final ExecutorService executor;
+  private final Map<Short, Pool> pools = new ConcurrentHashMap<>();
+  private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+  public Provisioner(HStreamClient client) {
+    this(client, DEFAULT_PARALLELISM);
+  }
+
+  public Provisioner(HStreamClient client, int parallelism) {
+    this.client = client;
+    AtomicInteger count = new AtomicInteger();
+    this.executor =
+        Executors.newFixedThreadPool(
+            parallelism,
+            r -> {
+              Thread thread = new Thread(r, "provisioner-" + count.getAndIncrement());
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  private static class Pool {
+    private final BlockingQueue<String> ready = new LinkedBlockingQueue<>();
+    // streams ready or being created: a stream is reserved before it is created, so concurrent
+    // refills never create more than the target between them
+    private final AtomicInteger reserved = new AtomicInteger();
+    private volatile int target;
+  }
+
+  /** What was created of a kind, and when the first creation began and the last one ended. */
+  private static class Stats {
+    private final Histogram latencies = new ConcurrentHistogram(3);
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator first = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator last = new LongAccumulator(Math::max, Long.MIN_VALUE);
+  }
+
+  private <T> T timed(String kind, Supplier<T> create) {
+    long begin = System.nanoTime();
+    T created = create.get();
+    long end = System.nanoTime();
+    Stats kindStats = stats.computeIfAbsent(kind, k -> new Stats());
+    kindStats.latencies.recordValue((end - begin) / 1000);
+    kindStats.count.increment();
+    kindStats.first.accumulate(begin);
+    kindStats.last.accumulate(end);
+    return created;
+  }
+
+  public CompletableFuture<String> createStreamAsync(short replicationFactor) {
+    return CompletableFuture.supplyAsync(
+        () -> timed("create-stream", () -> randStream(client, replicationFactor)), executor);
+  }
+
+  public CompletableFuture<String> createSubscriptionAsync(String stream) {
+    return CompletableFuture.supplyAsync(
+        () -> timed("create-subscription", () -> randSubscription(client, stream)), executor);
+  }
+
+  public List<String> createStreams(int count, short replicationFactor) {
+    List<CompletableFuture<String>> futures = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      futures.add(createStreamAsync(replicationFactor));
+    }
+    return joinAll(futures);
+  }
+
+  public List<String> createSubscriptions(String stream, int count) {
+    List<CompletableFuture<String>> futures = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      futures.add(createSubscriptionAsync(stream));
+    }
+    return joinAll(futures);
+  }
+
+  private static List<String> joinAll(List<CompletableFuture<String>> futures) {
+    List<String> names = new ArrayList<>(futures.size());
+    for (var future : futures) {
+      names.add(future.join());
+    }
+    return names;
+  }
+
+  /**
+   * Creates {@code count} streams in the background, and from then on creates a new one whenever
+   * one is taken.
+   */
+  public void prefetchStreams(short replicationFactor, int count) {
+    Pool pool = pools.computeIfAbsent(replicationFactor, rf -> new Pool());
+    pool.target = count;
+    refill(replicationFactor, pool);
+  }
+
+  private void refill(short replicationFactor, Pool pool) {
+    while (!executor.isShutdown()) {
+      int reserved = pool.reserved.get();
+      if (reserved >= pool.target) {
+        return;
+      }
+      if (!pool.reserved.compareAndSet(reserved, reserved + 1)) {
+        continue;
+      }
+      createStreamAsync(replicationFactor)
+          .whenComplete(
+              (stream, e) -> {
+                if (e != null) {
+                  logger.warn("failed to prefetch a stream", e);
+                  pool.reserved.decrementAndGet();
+                } else {
+                  pool.ready.add(stream);
+                }
+              });
+    }
+  }
+
+  /** A stream of the pool, waiting for one being created, or a new stream if there is none. */
+  public String takeStream(short replicationFactor) throws InterruptedException {
+    Pool pool = pools.computeIfAbsent(replicationFactor, rf -> new Pool());
+    String stream = pool.ready.poll();
+    if (stream == null && pool.reserved.get() > 0) {
+      stream = pool.ready.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+    if (stream != null) {
+      pool.reserved.decrementAndGet();
+    } else {
+      stream = timed("create-stream", () -> randStream(client, replicationFactor));
+    }
+    refill(replicationFactor, pool);
+    return stream;
+  }
+
+  public String takeStream() throws InterruptedException {
+    return takeStream((short) 3);
+  }
+
+  /**
+   * Adds a row per kind of resource created, with the creation throughput over the time from the
+   * first creation to the last one.
+   */
+  public void report(BenchmarkReport report) {
+    stats.forEach(
+        (kind, kindStats) -> {
+          long count = kindStats.count.sum();
+          long elapsed = kindStats.last.get() - kindStats.first.get();
+          report
+              .row(kind)
+              .put("ops", count)
+              .put("ops/s", count / (elapsed / 1e9))
+              .latency("latency", kindStats.latencies);
+        });
+  }
+
+  @Override
+  public void close() throws InterruptedException {
+    executor.shutdown();
+    if (!executor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+      executor.shutdownNow();
+    }
+  }
+}
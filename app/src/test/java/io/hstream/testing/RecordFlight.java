@@ -0,0 +1,15 @@
+package io.hstream.testing;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Records the test JVM with Java Flight Recorder while the annotated test, or every test of the
+ * annotated class, runs: see {@link FlightRecording}. {@code -Dflight.record=true} records every
+ * test.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface RecordFlight {}
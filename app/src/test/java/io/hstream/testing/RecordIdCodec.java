@@ -0,0 +1,96 @@
+package io.hstream.testing;
+
+/**
+ * Parses the record ids returned by the server into fixed-width primitives without allocating.
+ *
+ * <p>A record id is {@code [shardId-]batchId-batchIndex}, all unsigned decimal numbers. The batch
+ * id is a LogDevice LSN, i.e. a 32-bit epoch followed by a 32-bit sequence number. The position of
+ * a record in its shard is packed into one long as
+ *
+ * <pre>
+ *   | epoch: 16 bits | esn: 32 bits | batch index: 16 bits |
+ * </pre>
+ *
+ * which orders positions like the records themselves. Ids with a larger epoch or batch index are
+ * rejected rather than silently truncated. The codec keeps the last parsed id in fields, so an
+ * instance must not be shared between threads.
+ */
+public class RecordIdCodec {
+
+  /** The shard of ids which have none. */
+  public static final long NO_SHARD = -1;
+
+  static final int INDEX_BITS = 16;
+  static final int ESN_BITS = 32;
+  static final int EPOCH_BITS = 16;
+
+  // the largest unsigned long is MAX_TENTH * 10 + MAX_LAST_DIGIT
+  private static final long MAX_TENTH = Long.divideUnsigned(-1L, 10);
+  private static final long MAX_LAST_DIGIT = Long.remainderUnsigned(-1L, 10);
+
+  private final long[] components = new long[3];
+  private long shard;
+  private long position;
+
+  /** Parses the id, whose shard and position are then returned by {@link #shard()} and co. */
+  public RecordIdCodec parse(String recordId) {
+    int count = 0;
+    long value = 0;
+    boolean hasDigit = false;
+    for (int i = 0; i < recordId.length(); i++) {
+      char c = recordId.charAt(i);
+      if (c >= '0' && c <= '9') {
+        if (Long.compareUnsigned(value, MAX_TENTH) > 0
+            || value == MAX_TENTH && c - '0' > MAX_LAST_DIGIT) {
+          throw invalid(recordId, "number out of range");
+        }
+        value = value * 10 + (c - '0');
+        hasDigit = true;
+      } else if (c == '-' && hasDigit && count < components.length - 1) {
+        components[count++] = value;
+        value = 0;
+        hasDigit = false;
+      } else {
+        throw invalid(recordId, "unexpected character '" + c + "'");
+      }
+    }
+    if (!hasDigit || count == 0) {
+      throw invalid(recordId, "expected [shardId-]batchId-batchIndex");
+    }
+    components[count++] = value;
+
+    shard = count == 3 ? components[0] : NO_SHARD;
+    long lsn = components[count - 2];
+    long index = components[count - 1];
+    long epoch = lsn >>> ESN_BITS;
+    if (epoch >>> EPOCH_BITS != 0) {
+      throw invalid(recordId, "epoch " + epoch + " does not fit in " + EPOCH_BITS + " bits");
+    }
+    if (index >>> INDEX_BITS != 0) {
+      throw invalid(recordId, "batch index " + index + " does not fit in " + INDEX_BITS + " bits");
+    }
+    position = (lsn << INDEX_BITS) | index;
+    return this;
+  }
+
+  public long shard() {
+    return shard;
+  }
+
+  public long position() {
+    return position;
+  }
+
+  /** The id a shard and a position were parsed from. */
+  public static String format(long shard, long position) {
+    String lsnAndIndex =
+        Long.toUnsignedString(position >>> INDEX_BITS)
+            + "-"
+            + (position & ((1L << INDEX_BITS) - 1));
+    return shard == NO_SHARD ? lsnAndIndex : Long.toUnsignedString(shard) + "-" + lsnAndIndex;
+  }
+
+  private static IllegalArgumentException invalid(String recordId, String reason) {
+    return new IllegalArgumentException("invalid record id " + recordId + ": " + reason);
+  }
+}
@@ -0,0 +1,74 @@
+package io.hstream.testing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The parsing of record ids by {@link RecordIdCodec}, and the order kept by {@link RecordIdList}.
+ */
+public class RecordIdCodecTest {
+
+  @Test
+  void testIdsAreFormattedBackFromTheirShardAndPosition() {
+    RecordIdCodec codec = new RecordIdCodec();
+    for (String id : new String[] {"12-4294967301-3", "4294967301-0", "0-0"}) {
+      codec.parse(id);
+      Assertions.assertEquals(id, RecordIdCodec.format(codec.shard(), codec.position()));
+    }
+    Assertions.assertEquals(RecordIdCodec.NO_SHARD, codec.parse("7-1").shard());
+  }
+
+  @Test
+  void testPositionsAreOrderedLikeTheRecords() {
+    RecordIdCodec codec = new RecordIdCodec();
+    long first = codec.parse("4294967301-65535").position();
+    long second = codec.parse("4294967302-0").position();
+    long third = codec.parse("8589934593-0").position();
+    Assertions.assertTrue(first < second && second < third);
+  }
+
+  @Test
+  void testTheLargestUnsignedLongIsTheLastInRange() {
+    RecordIdCodec codec = new RecordIdCodec();
+    Assertions.assertEquals(-1L, codec.parse("18446744073709551615-0-0").shard());
+    for (String id :
+        new String[] {
+          // the tenth of the largest unsigned long followed by a digit above its last, 5
+          "18446744073709551616-0-0",
+          "18446744073709551619-0-0",
+          "18446744073709551620-0-0",
+          "184467440737095516150-0-0"
+        }) {
+      Assertions.assertThrows(IllegalArgumentException.class, () -> codec.parse(id), id);
+    }
+  }
+
+  @Test
+  void testIdsNotFittingThePositionAreRejected() {
+    RecordIdCodec codec = new RecordIdCodec();
+    // epoch 65536
+    Assertions.assertThrows(IllegalArgumentException.class, () -> codec.parse("281474976710656-0"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> codec.parse("1-65536"));
+    for (String id : new String[] {"", "1", "-1-2", "1--2", "1-2-", "1-2-3-4", "1-x"}) {
+      Assertions.assertThrows(IllegalArgumentException.class, () -> codec.parse(id), id);
+    }
+  }
+
+  @Test
+  void testListsAreEqualOnlyInTheSameOrder() {
+    RecordIdList ids = new RecordIdList(1);
+    RecordIdList same = new RecordIdList();
+    RecordIdList swapped = new RecordIdList();
+    for (String id : new String[] {"1-4294967301-0", "1-4294967301-1", "1-4294967302-0"}) {
+      ids.add(id);
+      same.add(id);
+    }
+    swapped.add("1-4294967301-1");
+    swapped.add("1-4294967301-0");
+    swapped.add("1-4294967302-0");
+    Assertions.assertEquals(ids, same);
+    Assertions.assertEquals(ids.hashCode(), same.hashCode());
+    Assertions.assertNotEquals(ids, swapped);
+    Assertions.assertEquals("1-4294967301-1", ids.get(1));
+  }
+}
@@ -0,0 +1,81 @@
+package io.hstream.testing;
+
+import java.util.Arrays;
+
+/**
+ * Record ids in the order they were added, as a shard and a position each, for the tests which
+ * check the order of delivery rather than only the records delivered: the ordered counterpart of
+ * {@link RecordIdSet}, about 16 bytes per record. Like the {@code List<String>} it replaces, it is
+ * not thread-safe.
+ */
+public class RecordIdList {
+
+  private final RecordIdCodec codec = new RecordIdCodec();
+  private long[] shards;
+  private long[] positions;
+  private int size;
+
+  public RecordIdList() {
+    this(16);
+  }
+
+  public RecordIdList(int expectedSize) {
+    shards = new long[Math.max(1, expectedSize)];
+    positions = new long[shards.length];
+  }
+
+  public void add(String recordId) {
+    codec.parse(recordId);
+    if (size == positions.length) {
+      shards = Arrays.copyOf(shards, size * 2);
+      positions = Arrays.copyOf(positions, size * 2);
+    }
+    shards[size] = codec.shard();
+    positions[size] = codec.position();
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** The id at {@code index}. */
+  public String get(int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException(index + " of " + size);
+    }
+    return RecordIdCodec.format(shards[index], positions[index]);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RecordIdList)) {
+      return false;
+    }
+    RecordIdList that = (RecordIdList) o;
+    return size == that.size
+        && Arrays.equals(shards, 0, size, that.shards, 0, size)
+        && Arrays.equals(positions, 0, size, that.positions, 0, size);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 1;
+    for (int i = 0; i < size; i++) {
+      h = 31 * h + Long.hashCode(shards[i] * 31 + positions[i]);
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("RecordIdList{size=").append(size).append(", [");
+    for (int i = 0; i < Math.min(size, 8); i++) {
+      sb.append(i == 0 ? "" : ", ").append(get(i));
+    }
+    return sb.append(size > 8 ? ", ...]}" : "]}").toString();
+  }
+}
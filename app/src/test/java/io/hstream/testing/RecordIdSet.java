@@ -0,0 +1,114 @@
+package io.hstream.testing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of record ids, kept as one {@link LongHashSet} of positions per shard rather than as
+ * strings: about 16 bytes per record instead of a hundred. Ids are parsed by {@link RecordIdCodec}.
+ * Like the {@code HashSet<String>} it replaces, it is not thread-safe.
+ */
+public class RecordIdSet {
+
+  private final Map<Long, LongHashSet> shards = new HashMap<>();
+  private final RecordIdCodec codec = new RecordIdCodec();
+  private final int expectedSize;
+  private int size;
+
+  public RecordIdSet() {
+    this(16);
+  }
+
+  public RecordIdSet(int expectedSize) {
+    this.expectedSize = expectedSize;
+  }
+
+  public boolean add(String recordId) {
+    codec.parse(recordId);
+    return add(codec.shard(), codec.position());
+  }
+
+  boolean add(long shard, long position) {
+    LongHashSet positions = shards.computeIfAbsent(shard, s -> new LongHashSet(expectedSize));
+    if (positions.add(position)) {
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  public void addAll(RecordIdSet other) {
+    other.shards.forEach(
+        (shard, positions) -> {
+          LongHashSet own = shards.computeIfAbsent(shard, s -> new LongHashSet(positions.size()));
+          positions.forEach(
+              position -> {
+                if (own.add(position)) {
+                  size++;
+                }
+              });
+        });
+  }
+
+  public boolean contains(String recordId) {
+    codec.parse(recordId);
+    LongHashSet positions = shards.get(codec.shard());
+    return positions != null && positions.contains(codec.position());
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof RecordIdSet)) {
+      return false;
+    }
+    RecordIdSet that = (RecordIdSet) o;
+    if (size != that.size) {
+      return false;
+    }
+    for (var entry : shards.entrySet()) {
+      LongHashSet positions = that.shards.get(entry.getKey());
+      if (positions == null
+          ? !entry.getValue().isEmpty()
+          : !positions.containsAll(entry.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 0;
+    for (var entry : shards.entrySet()) {
+      h += Long.hashCode(entry.getKey()) ^ entry.getValue().hashCode();
+    }
+    return h;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("RecordIdSet{size=").append(size).append(", [");
+    int[] printed = {0};
+    shards.forEach(
+        (shard, positions) ->
+            positions.forEach(
+                position -> {
+                  if (printed[0] < 8) {
+                    sb.append(printed[0]++ == 0 ? "" : ", ")
+                        .append(RecordIdCodec.format(shard, position));
+                  }
+                }));
+    return sb.append(size > 8 ? ", ...]}" : "]}").toString();
+  }
+}
@@ -0,0 +1,52 @@
+package io.hstream.testing;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The cgroup limits of the containers of the cluster of the annotated test or test class, under the
+ * {@code -Dlimits.*} of the run: see {@link ContainerLimits}. An empty or zero limit is no limit.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface ResourceLimits {
+  /** The limits of every HServer. */
+  Limit server() default @Limit;
+
+  /** The limits of HStore. */
+  Limit store() default @Limit;
+
+  /** The limits of ZooKeeper. */
+  Limit zk() default @Limit;
+
+  /**
+   * The device the blkio limits apply to, e.g. {@code /dev/nvme0n1}, a whole disk, which must hold
+   * the data directory of HStore under {@code java.io.tmpdir}. On cgroup v1 the write limit only
+   * throttles direct I/O, not the writeback of the page cache, which cgroup v2 throttles too.
+   */
+  String blkioDevice() default "";
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({})
+  @interface Limit {
+    /** CPUs of CPU time per period, e.g. {@code 1.5}, as {@code docker run --cpus}. */
+    double cpus() default 0;
+
+    /**
+     * The CPUs the container is pinned to, e.g. {@code 0-3} or {@code 4,6}, or for the HServers one
+     * set per server id, e.g. {@code 0-1;2-3;4-5}.
+     */
+    String cpuset() default "";
+
+    /** Memory, e.g. {@code 512m} or {@code 4g}, without swap. */
+    String memory() default "";
+
+    /** Bytes read per second from {@link ResourceLimits#blkioDevice}, e.g. {@code 200m}. */
+    String readBps() default "";
+
+    /** Bytes written per second to {@link ResourceLimits#blkioDevice}, e.g. {@code 100m}. */
+    String writeBps() default "";
+  }
+}
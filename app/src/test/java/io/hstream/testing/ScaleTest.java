@@ -4,7 +4,6 @@ import static io.hstream.testing.TestUtils.doProduce;
 import static io.hstream.testing.TestUtils.doProduceAndGatherRid;
 import static io.hstream.testing.TestUtils.makeBufferedProducer;
 import static io.hstream.testing.TestUtils.randRawRec;
-import static io.hstream.testing.TestUtils.randStream;
 import static io.hstream.testing.TestUtils.randSubscription;
 
 import io.hstream.BufferedProducer;
@@ -12,14 +11,10 @@ import io.hstream.Consumer;
 import io.hstream.HStreamClient;
 import io.hstream.Producer;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -33,12 +28,14 @@ import org.slf4j.LoggerFactory;
 import org.testcontainers.containers.GenericContainer;
 
 @ExtendWith(ClusterExtension.class)
+@RecordFlight
 public class ScaleTest {
 
   private static final Logger logger = LoggerFactory.getLogger(ScaleTest.class);
   private final Random random = new Random(System.currentTimeMillis());
   private String hStreamDBUrl;
   private HStreamClient hStreamClient;
+  private Provisioner provisioner;
   private List<GenericContainer<?>> hServers;
   private List<String> hServerUrls;
   private String logMsgPathPrefix;
@@ -68,10 +65,14 @@ public class ScaleTest {
   public void setup() throws Exception {
     logger.debug(" hStreamDBUrl " + hStreamDBUrl);
     hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+    provisioner = new Provisioner(hStreamClient);
+    // created while the test sets up, and taken by its first line
+    provisioner.prefetchStreams((short) 3, 1);
   }
 
   @AfterEach
   public void teardown() throws Exception {
+    provisioner.close();
     hStreamClient.close();
   }
 
@@ -80,12 +81,11 @@ public class ScaleTest {
   @RepeatedTest(10)
   @Timeout(120)
   void testLargeNumProducer() throws Exception {
-    final String stream = randStream(hStreamClient);
+    final String stream = provisioner.takeStream();
     final String subscription = randSubscription(hStreamClient, stream);
     final int total = 64;
 
-    List<String> recordIds0 = new ArrayList<>();
-    ReentrantLock lock = new ReentrantLock();
+    var recordIds0 = new ConcurrentRecordIdSet(total * total);
 
     List<Thread> threads = new ArrayList<>();
     for (int i = 0; i < total; ++i) {
@@ -94,7 +94,6 @@ public class ScaleTest {
               () -> {
                 Producer producer = hStreamClient.newProducer().stream(stream).build();
                 for (int j = 0; j < total; ++j) {
-                  lock.lock();
                   try {
                     recordIds0.add(producer.write(randRawRec()).join());
                   } catch (Throwable e) {
@@ -102,7 +101,6 @@ public class ScaleTest {
                     e.printStackTrace();
                     recordIds0.add(producer.write(randRawRec()).join());
                   }
-                  lock.unlock();
                 }
               });
       thread.start();
@@ -112,8 +110,7 @@ public class ScaleTest {
       x.join();
     }
 
-    Set<String> set0 = new HashSet<>(recordIds0);
-    Set<String> set1 = new HashSet<>();
+    var set1 = new ConcurrentRecordIdSet(total * total);
     CountDownLatch countDown1 = new CountDownLatch(total * total);
     Consumer consumer =
         hStreamClient
@@ -132,25 +129,24 @@ public class ScaleTest {
     Assertions.assertTrue(countDown1.await(90, TimeUnit.SECONDS));
     consumer.stopAsync().awaitTerminated();
 
-    Assertions.assertEquals(set0, set1);
+    Assertions.assertEquals(recordIds0.snapshot(), set1.snapshot());
     Assertions.assertEquals(total * total, recordIds0.size());
   }
 
   @Test
   @Timeout(120)
   void testLargeNumConsumer() throws Exception {
-    final String stream = randStream(hStreamClient);
+    final String stream = provisioner.takeStream();
     final String subscription = randSubscription(hStreamClient, stream);
     final int total = 128;
     final int totalMsgCnt = total * 4;
 
     Producer producer = hStreamClient.newProducer().stream(stream).build();
-    Set<String> recordIds0 = new HashSet<>(doProduceAndGatherRid(producer, 1, totalMsgCnt));
+    RecordIdSet recordIds0 = doProduceAndGatherRid(producer, 1, totalMsgCnt);
 
     Thread cur = Thread.currentThread();
 
-    Set<String> recordIds1 = new HashSet<>();
-    ReentrantLock lock = new ReentrantLock();
+    var recordIds1 = new ConcurrentRecordIdSet(totalMsgCnt);
     CountDownLatch countDown = new CountDownLatch(totalMsgCnt);
 
     List<Consumer> consumerGroup = new ArrayList<>();
@@ -161,38 +157,34 @@ public class ScaleTest {
               .subscription(subscription)
               .rawRecordReceiver(
                   (recs, recv) -> {
-                    lock.lock();
                     if (recordIds1.add(recs.getRecordId())) {
                       countDown.countDown();
                     }
-                    lock.unlock();
                     recv.ack();
                   })
               .build();
-      consumer.startAsync().awaitRunning();
       consumerGroup.add(consumer);
     }
+    ConsumerRuntime.get().startAll(consumerGroup);
     Assertions.assertTrue(countDown.await(90, TimeUnit.SECONDS));
-    for (var x : consumerGroup) {
-      x.stopAsync().awaitTerminated();
-    }
-    Assertions.assertEquals(recordIds0, recordIds1);
+    ConsumerRuntime.get().stopAll(consumerGroup);
+    Assertions.assertEquals(recordIds0, recordIds1.snapshot());
   }
 
   @Test
   @Timeout(120)
   void testLargeNumSubscription() throws Exception {
-    final String stream = randStream(hStreamClient);
+    final String stream = provisioner.takeStream();
     final int total = 64;
     final int msgCntForEachCase = total * 2;
 
-    String[] subscriptions = new String[total];
-    for (int i = 0; i < total; ++i) {
-      subscriptions[i] = randSubscription(hStreamClient, stream);
-    }
+    List<String> subscriptions = provisioner.createSubscriptions(stream, total);
+    BenchmarkReport report = new BenchmarkReport("provisioning");
+    provisioner.report(report);
+    report.write(context, logMsgPathPrefix);
 
     Producer producer = hStreamClient.newProducer().stream(stream).build();
-    List<String> recordIds0 = new ArrayList<>();
+    RecordIdList recordIds0 = new RecordIdList(msgCntForEachCase);
     for (int i = 0; i < msgCntForEachCase; ++i) {
       recordIds0.add(producer.write(randRawRec()).join());
     }
@@ -203,12 +195,13 @@ public class ScaleTest {
       Thread thread =
           new Thread(
               () -> {
-                List<String> recordIds1 = new ArrayList<>();
+                // received in order by the consumer, read here after the latch
+                RecordIdList recordIds1 = new RecordIdList(msgCntForEachCase);
                 CountDownLatch countDown = new CountDownLatch(msgCntForEachCase);
                 Consumer consumer =
                     hStreamClient
                         .newConsumer()
-                        .subscription(subscriptions[finalI])
+                        .subscription(subscriptions.get(finalI))
                         .rawRecordReceiver(
                             (recs, recv) -> {
                               recordIds1.add(recs.getRecordId());
@@ -236,23 +229,23 @@ public class ScaleTest {
   @Test
   @Timeout(60)
   void testLargeNumBatch() throws Exception {
-    final String stream = randStream(hStreamClient);
+    final String stream = provisioner.takeStream();
     final String subscription = randSubscription(hStreamClient, stream);
     final int batchSize = 512;
 
     BufferedProducer producer = makeBufferedProducer(hStreamClient, stream, batchSize);
-    List<String> recs0 = doProduce(producer, 4, 2048);
+    PayloadDigests recs0 = doProduce(producer, 4, 2048);
     producer.close();
 
     CountDownLatch countDown = new CountDownLatch(2048);
-    List<String> recs1 = new ArrayList<>();
+    PayloadDigests recs1 = new PayloadDigests(2048);
     Consumer consumer =
         hStreamClient
             .newConsumer()
             .subscription(subscription)
             .rawRecordReceiver(
                 (recs, recv) -> {
-                  recs1.add(Arrays.toString(recs.getRawRecord()));
+                  recs1.add(recs.getRawRecord());
                   recv.ack();
                   countDown.countDown();
                 })
@@ -0,0 +1,240 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.buildRecord;
+import static io.hstream.testing.TestUtils.consumeAsync;
+import static io.hstream.testing.TestUtils.randStream;
+import static io.hstream.testing.TestUtils.randSubscription;
+
+import io.hstream.HStreamClient;
+import io.hstream.Producer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Measures what it costs a client to talk to a server which does not own the stream: producers and
+ * consumers are pinned to one server URL, to another one, or get every URL.
+ *
+ * <p>The client has no lookup of the server owning a stream or a subscription, so the owner is the
+ * server whose log the {@link LogAnalyzer} counts the most appends, or fetches, while the benchmark
+ * runs; {@code unknown}, and said so in the header of the report, when no server logs them at its
+ * log level.
+ */
+@ExtendWith(ClusterExtension.class)
+public class ServerLocalityTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(ServerLocalityTest.class);
+  private static final int PAYLOAD_SIZE = 128;
+  private static final int RECORD_COUNT = 2048;
+  private static final String ALL_SERVERS = "all";
+  private static final String UNKNOWN_SERVER = "unknown";
+  // the rules of LogAnalyzer matching the logs of the server handling the request
+  private static final String APPEND_RULE = "append";
+  private static final String FETCH_RULE = "fetch";
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+  // pinned clients, keyed by the name of the server they talk to
+  private final Map<String, HStreamClient> clients = new LinkedHashMap<>();
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+    for (int i = 0; i < hServerUrls.size(); i++) {
+      clients.put("hserver-" + i, HStreamClient.builder().serviceUrl(hServerUrls.get(i)).build());
+    }
+    clients.put(ALL_SERVERS, hStreamClient);
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    for (var client : clients.values()) {
+      client.close();
+    }
+    clients.clear();
+  }
+
+  /** Whether two clients talk to the same server, for the requests going to any server. */
+  private static String sameServer(String server, String otherServer) {
+    if (server.equals(ALL_SERVERS) || otherServer.equals(ALL_SERVERS)) {
+      return ALL_SERVERS;
+    }
+    return String.valueOf(server.equals(otherServer));
+  }
+
+  /** Whether a client pinned to {@code server} talks to the {@code owner} of its requests. */
+  private static String locality(String server, String owner) {
+    if (server.equals(ALL_SERVERS)) {
+      return ALL_SERVERS;
+    }
+    if (owner.equals(UNKNOWN_SERVER)) {
+      return UNKNOWN_SERVER;
+    }
+    return server.equals(owner) ? "local" : "remote";
+  }
+
+  /** The names of the HServers in the logs analyzed. */
+  private List<String> servers() {
+    List<String> servers = new ArrayList<>();
+    for (int i = 0; i < hServers.size(); i++) {
+      servers.add("hserver-" + i);
+    }
+    return servers;
+  }
+
+  /** The server which logged the most lines of the rule since {@code before}. */
+  private String owner(String rule, long[] before) {
+    int owner = LogAnalyzer.of(context).mostMatched(servers(), rule, before);
+    return owner < 0 ? UNKNOWN_SERVER : "hserver-" + owner;
+  }
+
+  /**
+   * Every payload starts with the time it was written at, so that the consumer can compute the
+   * end-to-end latency.
+   */
+  private static byte[] timestampedPayload() {
+    return ByteBuffer.allocate(PAYLOAD_SIZE).putLong(System.nanoTime()).array();
+  }
+
+  /**
+   * Writes through the producer while the consumer reads, so that the end-to-end latency is the
+   * delivery latency rather than the age of a backlog.
+   */
+  private void benchmarkProduceAndConsume(
+      BenchmarkReport.Row row, Producer producer, HStreamClient consumerClient, String stream)
+      throws Exception {
+    String subscription = randSubscription(hStreamClient, stream);
+    Histogram endToEndLatencies = new ConcurrentHistogram(3);
+    AtomicInteger received = new AtomicInteger();
+    CompletableFuture<Void> consumed =
+        consumeAsync(
+            consumerClient,
+            subscription,
+            "c1",
+            receivedRawRecord -> {
+              long writtenAt = ByteBuffer.wrap(receivedRawRecord.getRawRecord()).getLong();
+              endToEndLatencies.recordValue((System.nanoTime() - writtenAt) / 1000);
+              return received.incrementAndGet() < RECORD_COUNT;
+            });
+
+    Histogram writeLatencies = new ConcurrentHistogram(3);
+    List<CompletableFuture<String>> futures = new ArrayList<>(RECORD_COUNT);
+    long begin = System.nanoTime();
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      long writeBegin = System.nanoTime();
+      futures.add(
+          producer
+              .write(buildRecord(timestampedPayload()))
+              .whenComplete(
+                  (id, e) -> writeLatencies.recordValue((System.nanoTime() - writeBegin) / 1000)));
+    }
+    futures.forEach(CompletableFuture::join);
+    row.throughput(RECORD_COUNT, (long) RECORD_COUNT * PAYLOAD_SIZE, System.nanoTime() - begin)
+        .latency("write", writeLatencies);
+    consumed.get(60, TimeUnit.SECONDS);
+    row.put("consume-ops/s", RECORD_COUNT / ((System.nanoTime() - begin) / 1e9))
+        .latency("end-to-end", endToEndLatencies);
+    Assertions.assertEquals(RECORD_COUNT, received.get());
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @Test
+  @Timeout(900)
+  void testProducerAndConsumerLocality() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("producer-consumer-locality");
+    boolean unknownOwners = false;
+    for (var producerServer : clients.keySet()) {
+      for (var consumerServer : clients.keySet()) {
+        String stream = randStream(hStreamClient);
+        var row = report.row("producer=" + producerServer + ",consumer=" + consumerServer);
+        Producer producer = clients.get(producerServer).newProducer().stream(stream).build();
+        long[] appendsBefore = LogAnalyzer.of(context).counts(servers(), APPEND_RULE);
+        long[] fetchesBefore = LogAnalyzer.of(context).counts(servers(), FETCH_RULE);
+        benchmarkProduceAndConsume(row, producer, clients.get(consumerServer), stream);
+        String streamOwner = owner(APPEND_RULE, appendsBefore);
+        String subscriptionOwner = owner(FETCH_RULE, fetchesBefore);
+        unknownOwners |= streamOwner.equals(UNKNOWN_SERVER);
+        unknownOwners |= subscriptionOwner.equals(UNKNOWN_SERVER);
+        row.put("stream-owner", streamOwner)
+            .put("producer-locality", locality(producerServer, streamOwner))
+            .put("subscription-owner", subscriptionOwner)
+            .put("consumer-locality", locality(consumerServer, subscriptionOwner));
+      }
+    }
+    if (unknownOwners) {
+      report.note(
+          "unknown owners and localities: the servers log appends and fetches at debug level, run"
+              + " with -Dlog.server.level=debug");
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+
+  @Test
+  @Timeout(600)
+  void testMetadataRequestLocality() throws Exception {
+    final int total = 64;
+    BenchmarkReport report = new BenchmarkReport("metadata-locality");
+    for (var creator : clients.keySet()) {
+      for (var deleter : clients.keySet()) {
+        Histogram createLatencies = new Histogram(3);
+        Histogram deleteLatencies = new Histogram(3);
+        for (int i = 0; i < total; i++) {
+          long begin = System.nanoTime();
+          String stream = randStream(clients.get(creator));
+          createLatencies.recordValue((System.nanoTime() - begin) / 1000);
+          begin = System.nanoTime();
+          clients.get(deleter).deleteStream(stream);
+          deleteLatencies.recordValue((System.nanoTime() - begin) / 1000);
+        }
+        report
+            .row("create=" + creator + ",delete=" + deleter)
+            .put("same-server", sameServer(creator, deleter))
+            .latency("create", createLatencies)
+            .latency("delete", deleteLatencies);
+      }
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+}
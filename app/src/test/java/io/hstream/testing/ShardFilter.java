@@ -0,0 +1,80 @@
+package io.hstream.testing;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.platform.engine.FilterResult;
+import org.junit.platform.engine.TestDescriptor;
+import org.junit.platform.engine.support.descriptor.MethodSource;
+import org.junit.platform.launcher.PostDiscoveryFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs only the tests of a shard with {@code -Dshard.count=n -Dshard.index=i}, i from 0, so CI
+ * workers running the shards in parallel finish at about the same time: the tests of the {@link
+ * TestHistory} are dealt out longest first, each to the shard with the least work so far. Tests
+ * without a history go to a shard by the hash of their name. The shards depend only on the history
+ * snapshot of the build, not on the tests a JVM discovers nor on the history file the forks update
+ * as they finish, so Gradle forks and workers agree on them; without a snapshot, every test goes by
+ * its hash. Registered in {@code
+ * META-INF/services/org.junit.platform.launcher.PostDiscoveryFilter}.
+ */
+public class ShardFilter implements PostDiscoveryFilter {
+
+  private static final Logger logger = LoggerFactory.getLogger(ShardFilter.class);
+
+  private final int count = Integer.getInteger("shard.count", 1);
+  private final int index = Integer.getInteger("shard.index", 0);
+  private Map<String, Integer> shards;
+
+  @Override
+  public FilterResult apply(TestDescriptor descriptor) {
+    if (count <= 1 || !descriptor.getSource().isPresent()) {
+      return FilterResult.included("no sharding");
+    }
+    if (!(descriptor.getSource().get() instanceof MethodSource)) {
+      return FilterResult.included("not a test method");
+    }
+    MethodSource method = (MethodSource) descriptor.getSource().get();
+    int shard = shardOf(TestHistory.key(method.getClassName(), method.getMethodName()));
+    return FilterResult.includedIf(
+        shard == index, () -> "in shard " + index, () -> "in shard " + shard);
+  }
+
+  synchronized int shardOf(String key) {
+    if (shards == null) {
+      if (TestHistory.snapshotFile() == null) {
+        logger.warn("no -Dhistory.snapshot to shard by, sharding by the hash of the test names");
+        shards = Map.of();
+      } else {
+        shards = assign(TestHistory.get(), count);
+      }
+    }
+    Integer shard = shards.get(key);
+    return shard != null ? shard : Math.floorMod(key.hashCode(), count);
+  }
+
+  static Map<String, Integer> assign(Map<String, TestHistory.Entry> history, int count) {
+    List<String> keys = new ArrayList<>(history.keySet());
+    keys.sort(
+        Comparator.comparingDouble((String key) -> history.get(key).durationMillis)
+            .reversed()
+            .thenComparing(Comparator.naturalOrder()));
+    double[] loads = new double[count];
+    Map<String, Integer> shards = new HashMap<>();
+    for (String key : keys) {
+      int least = 0;
+      for (int i = 1; i < count; i++) {
+        if (loads[i] < loads[least]) {
+          least = i;
+        }
+      }
+      loads[least] += history.get(key).durationMillis;
+      shards.put(key, least);
+    }
+    return shards;
+  }
+}
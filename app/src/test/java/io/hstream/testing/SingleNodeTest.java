@@ -1,6 +1,6 @@
 package io.hstream.testing;
 
-import static io.hstream.testing.TestUtils.createConsumerCollectStringPayload;
+import static io.hstream.testing.TestUtils.createConsumerCollectPayloadDigests;
 import static io.hstream.testing.TestUtils.doProduce;
 import static io.hstream.testing.TestUtils.makeBufferedProducer;
 import static io.hstream.testing.TestUtils.randStream;
@@ -10,11 +10,8 @@ import static io.hstream.testing.TestUtils.restartServer;
 import io.hstream.BufferedProducer;
 import io.hstream.Consumer;
 import io.hstream.HStreamClient;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -78,30 +75,29 @@ class SingleNodeTest {
     producer.close();
     CountDownLatch notify = new CountDownLatch(records.size());
     final String subscription = randSubscription(hStreamClient, streamName);
-    List<String> res = new ArrayList<>();
-    var lock = new ReentrantLock();
+    var res = new ConcurrentPayloadDigests();
     Consumer consumer =
-        createConsumerCollectStringPayload(
-            hStreamClient, subscription, "test-consumer", res, notify, lock);
+        createConsumerCollectPayloadDigests(
+            hStreamClient, subscription, "test-consumer", res, notify);
     consumer.startAsync().awaitRunning();
     var done = notify.await(20, TimeUnit.SECONDS);
     consumer.stopAsync().awaitTerminated();
     Assertions.assertTrue(done);
-    Assertions.assertEquals(records, res);
+    Assertions.assertEquals(records, res.snapshot());
 
     restartServer(server);
-    res.clear();
+    var res2 = new ConcurrentPayloadDigests();
     CountDownLatch notify2 = new CountDownLatch(records.size());
 
     final String subscription1 = randSubscription(hStreamClient, streamName);
     Consumer consumer2 =
-        createConsumerCollectStringPayload(
-            hStreamClient, subscription1, "test-consumer", res, notify2, lock);
+        createConsumerCollectPayloadDigests(
+            hStreamClient, subscription1, "test-consumer", res2, notify2);
     consumer2.startAsync().awaitRunning();
     done = notify2.await(20, TimeUnit.SECONDS);
     consumer2.stopAsync().awaitTerminated();
     Assertions.assertTrue(done);
-    Assertions.assertEquals(records, res);
+    Assertions.assertEquals(records, res2.snapshot());
   }
 
   @Disabled("HS-946")
@@ -115,33 +111,32 @@ class SingleNodeTest {
 
     CountDownLatch notify = new CountDownLatch(records.size());
     final String subscription = randSubscription(hStreamClient, streamName);
-    List<String> res = new ArrayList<>();
-    var lock = new ReentrantLock();
+    var res = new ConcurrentPayloadDigests();
     Consumer consumer =
-        createConsumerCollectStringPayload(
-            hStreamClient, subscription, "test-consumer", res, notify, lock);
+        createConsumerCollectPayloadDigests(
+            hStreamClient, subscription, "test-consumer", res, notify);
     consumer.startAsync().awaitRunning();
     var done = notify.await(20, TimeUnit.SECONDS);
     consumer.stopAsync().awaitTerminated();
     Assertions.assertTrue(done);
-    Assertions.assertEquals(records, res);
+    Assertions.assertEquals(records, res.snapshot());
 
     restartServer(server);
-    res.clear();
+    var res2 = new ConcurrentPayloadDigests();
 
     BufferedProducer producer2 = makeBufferedProducer(hStreamClient, streamName, 10);
     records = doProduce(producer2, 1, 10);
     producer2.close();
     CountDownLatch notify2 = new CountDownLatch(records.size());
     Consumer consumer2 =
-        createConsumerCollectStringPayload(
-            hStreamClient, subscription, "test-consumer-new", res, notify2, lock);
+        createConsumerCollectPayloadDigests(
+            hStreamClient, subscription, "test-consumer-new", res2, notify2);
     consumer2.startAsync().awaitRunning();
     done = notify2.await(20, TimeUnit.SECONDS);
     Thread.sleep(1000);
     consumer2.stopAsync().awaitTerminated();
     Assertions.assertTrue(done);
-    Assertions.assertEquals(records.size(), res.size());
-    Assertions.assertEquals(records, res);
+    Assertions.assertEquals(records.size(), res2.size());
+    Assertions.assertEquals(records, res2.snapshot());
   }
 }
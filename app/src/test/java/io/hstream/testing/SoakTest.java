@@ -0,0 +1,210 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.randStream;
+import static io.hstream.testing.TestUtils.randSubscription;
+import static io.hstream.testing.TestUtils.writeLog;
+
+import com.google.common.util.concurrent.Service;
+import io.hstream.BufferedProducer;
+import io.hstream.Consumer;
+import io.hstream.HStreamClient;
+import io.hstream.Record;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Long running delivery checks, enabled with {@code -Dsoak.duration.minutes=N}. Deliveries are
+ * verified while they happen by a {@link DeliveryVerifier}, and payloads by regenerating them with
+ * the {@link PayloadGenerator}, so memory stays constant however long the run is, and a lost or
+ * corrupted record fails the test within seconds.
+ */
+@ExtendWith(ClusterExtension.class)
+@EnabledIfSystemProperty(named = "soak.duration.minutes", matches = "\\d+")
+public class SoakTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(SoakTest.class);
+  private static final int PAYLOAD_SIZE = 1024;
+  private static final int MAX_IN_FLIGHT = 1024;
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    hStreamClient.close();
+  }
+
+  /**
+   * Writes stamped records until the deadline, keeping at most MAX_IN_FLIGHT writes pending, and
+   * publishes in {@code written} how many of the first records were acked, also when a write fails.
+   */
+  private static void produceUntil(
+      BufferedProducer producer, int producerId, String key, long deadline, long[] written) {
+    PayloadGenerator generator = new PayloadGenerator(producerId);
+    CompletableFuture<?>[] inFlight = new CompletableFuture[MAX_IN_FLIGHT];
+    // the slots are joined in the order of the records, so every record before acked is acked
+    long acked = 0;
+    try {
+      long seq = 0;
+      for (; System.nanoTime() < deadline; seq++) {
+        int slot = (int) (seq % MAX_IN_FLIGHT);
+        if (inFlight[slot] != null) {
+          inFlight[slot].join();
+          acked = seq - MAX_IN_FLIGHT + 1;
+        }
+        byte[] payload = generator.next(PAYLOAD_SIZE);
+        inFlight[slot] =
+            producer.write(Record.newBuilder().orderingKey(key).rawRecord(payload).build());
+      }
+      producer.close();
+      CompletableFuture.allOf(
+              Arrays.stream(inFlight).filter(Objects::nonNull).toArray(CompletableFuture<?>[]::new))
+          .join();
+      acked = seq;
+    } finally {
+      written[producerId] = acked;
+    }
+  }
+
+  private static void throwIfFailed(AtomicReference<Throwable> failure) throws Exception {
+    Throwable e = failure.get();
+    if (e instanceof Exception) {
+      throw (Exception) e;
+    }
+    if (e != null) {
+      throw new AssertionError(e);
+    }
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @Test
+  void testDeliveryUnderSustainedLoad() throws Exception {
+    final long minutes = Long.getLong("soak.duration.minutes");
+    final int producers = Integer.getInteger("soak.producers", 8);
+    final int consumers = Integer.getInteger("soak.consumers", 4);
+    final String stream = randStream(hStreamClient);
+    final String subscription = randSubscription(hStreamClient, stream);
+    DeliveryVerifier verifier = new DeliveryVerifier(producers);
+
+    // the first failure of a producer or a consumer, which fails the test
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Consumer> consumerList = new ArrayList<>();
+    for (int i = 0; i < consumers; i++) {
+      consumerList.add(
+          hStreamClient
+              .newConsumer()
+              .subscription(subscription)
+              .name("soak-consumer-" + i)
+              .rawRecordReceiver(
+                  (receivedRawRecord, responder) -> {
+                    responder.ack();
+                    byte[] payload = receivedRawRecord.getRawRecord();
+                    if (!PayloadGenerator.matches(payload)) {
+                      failure.compareAndSet(
+                          null,
+                          new IllegalStateException(
+                              "corrupted payload of producer "
+                                  + DeliveryVerifier.producerOf(payload)
+                                  + " record "
+                                  + DeliveryVerifier.sequenceOf(payload)));
+                      return;
+                    }
+                    verifier.onDelivered(payload);
+                  })
+              .build());
+    }
+    ConsumerRuntime.get().startAll(consumerList);
+
+    long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(minutes);
+    long[] written = new long[producers];
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < producers; i++) {
+      int producerId = i;
+      BufferedProducer producer = TestUtils.makeBufferedProducer(hStreamClient, stream, 64);
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  produceUntil(producer, producerId, "key-" + producerId, deadline, written);
+                } catch (Throwable e) {
+                  logger.error("producer {} failed", producerId, e);
+                  failure.compareAndSet(null, e);
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+
+    try {
+      long lastDelivered = 0;
+      while (System.nanoTime() < deadline) {
+        Thread.sleep(10 * 1000);
+        verifier.assertNoGaps();
+        for (Consumer consumer : consumerList) {
+          if (consumer.state() == Service.State.FAILED) {
+            failure.compareAndSet(null, consumer.failureCause());
+          }
+        }
+        throwIfFailed(failure);
+        long delivered = verifier.delivered();
+        logger.info("{} records/s, {}", (delivered - lastDelivered) / 10, verifier.summary());
+        lastDelivered = delivered;
+      }
+      for (var thread : threads) {
+        thread.join();
+      }
+      throwIfFailed(failure);
+
+      verifier.awaitDelivered(written, Duration.ofMinutes(2));
+      throwIfFailed(failure);
+      writeLog(context, "soak-summary", logMsgPathPrefix, verifier.summary());
+    } finally {
+      ConsumerRuntime.get().stopAll(consumerList);
+    }
+  }
+}
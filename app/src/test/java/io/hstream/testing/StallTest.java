@@ -0,0 +1,301 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.buildRecord;
+import static io.hstream.testing.TestUtils.randStream;
+import static io.hstream.testing.TestUtils.randSubscriptionWithTimeout;
+
+import io.hstream.Consumer;
+import io.hstream.HStreamClient;
+import io.hstream.Producer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Freezes a container with {@code docker pause}, as a long GC pause or a stalled disk would, while
+ * a producer writes at a steady rate and a consumer reads, and reports what the stall costs:
+ *
+ * <ul>
+ *   <li>{@code write-timeouts}, the writes taking longer than {@code -Dstall.write.timeout.ms}
+ *       (5000 by default), which a client with that timeout would have failed;
+ *   <li>{@code redelivered}, the records received again after {@link #ACK_TIMEOUT_SECONDS}, acked
+ *       by a consumer which stalled or lost its server;
+ *   <li>{@code session-expiries}, the ZooKeeper sessions expired, of the HServers;
+ *   <li>{@code recovery(ms)}, the time from the unpause until the writes are back to their latency
+ *       before the stall for a second in a row, -1 if they never are.
+ * </ul>
+ *
+ * <p>The HServer paused is the one appending to the stream written, found from the {@code Receive
+ * Append Request} debug logs of a few writes before the stall, else hserver-0, which the header of
+ * the report then says: the row has it as {@code paused}. The stalls last {@code -Dstall.seconds},
+ * 2,10 by default. The stall a cluster tolerates without timeouts or expiries is what the client
+ * and session timeouts should allow for.
+ */
+@ExtendWith(ClusterExtension.class)
+public class StallTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(StallTest.class);
+  private static final int[] STALL_SECONDS =
+      Arrays.stream(System.getProperty("stall.seconds", "2,10").split(","))
+          .mapToInt(s -> Integer.parseInt(s.trim()))
+          .toArray();
+  private static final long WRITE_TIMEOUT_MS = Long.getLong("stall.write.timeout.ms", 5000);
+  private static final int ACK_TIMEOUT_SECONDS = 5;
+  private static final int WRITES_PER_SECOND = 200;
+  private static final int PAYLOAD_SIZE = 128;
+  private static final long WARMUP_MS = 5000;
+  private static final long BUCKET_MS = 100;
+  private static final int STEADY_BUCKETS = 10;
+  private static final int PROBE_WRITES = 20;
+  private static final String STREAM_OWNER = "stream-owner";
+  private static final String UNKNOWN_SERVER = "unknown";
+  private static final long LOG_LAG_MS = 2000;
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+  private ChaosScheduler chaosScheduler;
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  public void setChaosScheduler(ChaosScheduler chaosScheduler) {
+    this.chaosScheduler = chaosScheduler;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    hStreamClient.close();
+  }
+
+  private long sessionExpiries() {
+    // logged by ZooKeeper as "Expiring session 0x..., timeout of ...ms exceeded"
+    return LogAnalyzer.of(context).count("zk", "session-expiry");
+  }
+
+  /** The names of the HServers in the logs analyzed. */
+  private List<String> servers() {
+    List<String> servers = new ArrayList<>();
+    for (int i = 0; i < hServers.size(); i++) {
+      servers.add("hserver-" + i);
+    }
+    return servers;
+  }
+
+  /**
+   * Writes and reads through a stall of {@code target}, or of the server appending to the stream
+   * for {@link #STREAM_OWNER}, and reports the cost of it in the row.
+   *
+   * @return the server appending to the stream, {@link #UNKNOWN_SERVER} without debug logs
+   */
+  private String measureStall(BenchmarkReport.Row row, String target, int stallSeconds)
+      throws Exception {
+    long stallMs = TimeUnit.SECONDS.toMillis(stallSeconds);
+    long unpauseMs = WARMUP_MS + stallMs;
+    long durationMs = unpauseMs + Math.max(10_000, 2 * stallMs);
+    String stream = randStream(hStreamClient);
+    String subscription = randSubscriptionWithTimeout(hStreamClient, stream, ACK_TIMEOUT_SECONDS);
+    ConcurrentRecordIdSet receivedIds =
+        new ConcurrentRecordIdSet((int) (WRITES_PER_SECOND * durationMs / 1000));
+    LongAdder received = new LongAdder();
+    LongAdder redelivered = new LongAdder();
+    Consumer consumer =
+        hStreamClient
+            .newConsumer()
+            .subscription(subscription)
+            .name("stall-consumer")
+            .rawRecordReceiver(
+                (receivedRawRecord, responder) -> {
+                  received.increment();
+                  if (!receivedIds.add(receivedRawRecord.getRecordId())) {
+                    redelivered.increment();
+                  }
+                  responder.ack();
+                })
+            .build();
+    ConsumerRuntime.get().start(consumer).join();
+
+    int buckets = (int) (durationMs / BUCKET_MS);
+    // the slowest write issued in each bucket
+    AtomicLongArray slowest = new AtomicLongArray(buckets);
+    Histogram warmupLatencies = new ConcurrentHistogram(3);
+    Histogram latencies = new ConcurrentHistogram(3);
+    LongAdder errors = new LongAdder();
+
+    Producer producer = hStreamClient.newProducer().stream(stream).build();
+    PayloadGenerator generator = new PayloadGenerator(0);
+    LogAnalyzer logAnalyzer = LogAnalyzer.of(context);
+    long[] appendsBefore = logAnalyzer.counts(servers(), "append");
+    for (int i = 0; i < PROBE_WRITES; i++) {
+      producer.write(buildRecord(generator.next(PAYLOAD_SIZE))).join();
+    }
+    // the log consumers get the lines a little after the writes complete
+    long logDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOG_LAG_MS);
+    int owner = logAnalyzer.mostMatched(servers(), "append", appendsBefore);
+    while (owner < 0 && System.nanoTime() < logDeadline) {
+      Thread.sleep(100);
+      owner = logAnalyzer.mostMatched(servers(), "append", appendsBefore);
+    }
+    String streamOwner = owner < 0 ? UNKNOWN_SERVER : "hserver-" + owner;
+    String paused = target;
+    if (target.equals(STREAM_OWNER)) {
+      paused = owner < 0 ? "hserver-0" : streamOwner;
+      if (owner < 0) {
+        logger.warn("no append was logged, the debug logs are off: pausing hserver-0");
+      }
+    }
+    long sessionExpiriesBefore = sessionExpiries();
+
+    List<CompletableFuture<String>> writes = new ArrayList<>();
+    AtomicLong written = new AtomicLong();
+    chaosScheduler
+        .schedule(
+            ChaosScheduler.script(
+                WARMUP_MS + "ms pause " + paused + ";" + unpauseMs + "ms unpause " + paused))
+        .start();
+    long begin = System.nanoTime();
+    for (long i = 0; ; i++) {
+      long issueNanos = begin + i * TimeUnit.SECONDS.toNanos(1) / WRITES_PER_SECOND;
+      long issueMs = TimeUnit.NANOSECONDS.toMillis(issueNanos - begin);
+      if (issueMs >= durationMs) {
+        break;
+      }
+      long sleepNanos = issueNanos - System.nanoTime();
+      if (sleepNanos > 0) {
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+      }
+      int bucket = (int) (issueMs / BUCKET_MS);
+      writes.add(
+          producer
+              .write(buildRecord(generator.next(PAYLOAD_SIZE)))
+              .whenComplete(
+                  (id, e) -> {
+                    long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - issueNanos);
+                    if (e != null) {
+                      errors.increment();
+                      slowest.set(bucket, Long.MAX_VALUE);
+                      return;
+                    }
+                    written.incrementAndGet();
+                    latencies.recordValue(latencyMs * 1000);
+                    if (issueMs < WARMUP_MS) {
+                      warmupLatencies.recordValue(latencyMs * 1000);
+                    }
+                    slowest.accumulateAndGet(bucket, latencyMs, Math::max);
+                  }));
+    }
+    chaosScheduler.awaitCompletion(Duration.ofSeconds(30));
+    try {
+      CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]))
+          .get(WRITE_TIMEOUT_MS * 2, TimeUnit.MILLISECONDS);
+    } catch (Exception e) {
+      logger.info("writes still failed or pending after the stall: {}", e.toString());
+    }
+    for (int i = 0; i < writes.size(); i++) {
+      if (!writes.get(i).isDone()) {
+        slowest.set((int) (i * 1000L / WRITES_PER_SECOND / BUCKET_MS), Long.MAX_VALUE);
+      }
+    }
+    long timeouts =
+        writes.size()
+            - written.get()
+            - errors.sum()
+            + latencies.getCountBetweenValues((WRITE_TIMEOUT_MS + 1) * 1000, Long.MAX_VALUE);
+
+    long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2L * ACK_TIMEOUT_SECONDS);
+    while (receivedIds.size() < written.get() + PROBE_WRITES && System.nanoTime() < drainDeadline) {
+      Thread.sleep(100);
+    }
+    ConsumerRuntime.get().stop(consumer).join();
+
+    // steady again once the writes of a second in a row are no slower than before the stall
+    long steadyMs = Math.max(10, 2 * warmupLatencies.getValueAtPercentile(99) / 1000);
+    long recoveryMs = -1;
+    int steadyRun = 0;
+    for (int bucket = (int) (unpauseMs / BUCKET_MS); bucket < buckets; bucket++) {
+      steadyRun = slowest.get(bucket) <= steadyMs ? steadyRun + 1 : 0;
+      if (steadyRun == STEADY_BUCKETS) {
+        recoveryMs = (bucket - STEADY_BUCKETS + 1) * BUCKET_MS - unpauseMs;
+        break;
+      }
+    }
+
+    row.put("paused", paused)
+        .put("stream-owner", streamOwner)
+        .put("writes", writes.size())
+        .put("write-errors", errors.sum())
+        .put("write-timeouts", timeouts)
+        .latency("write", latencies)
+        .put("received", received.sum())
+        .put("redelivered", redelivered.sum())
+        .put("missing", written.get() + PROBE_WRITES - receivedIds.size())
+        .put("session-expiries", sessionExpiries() - sessionExpiriesBefore)
+        .put("steady-latency(ms)", steadyMs)
+        .put("recovery(ms)", recoveryMs);
+    return streamOwner;
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @ParameterizedTest(name = "{0}")
+  @ValueSource(strings = {STREAM_OWNER, "zk"})
+  @Timeout(900)
+  void testStall(String target) throws Exception {
+    BenchmarkReport report = new BenchmarkReport("stall-" + target);
+    boolean unknownOwner = false;
+    for (int stallSeconds : STALL_SECONDS) {
+      String streamOwner =
+          measureStall(report.row(target + ",stall=" + stallSeconds + "s"), target, stallSeconds);
+      unknownOwner |= streamOwner.equals(UNKNOWN_SERVER);
+    }
+    if (unknownOwner && target.equals(STREAM_OWNER)) {
+      report.note(
+          "hserver-0 paused, maybe not the stream owner: the servers log appends at debug level,"
+              + " run with -Dlog.server.level=debug");
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+}
@@ -0,0 +1,202 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.buildRecord;
+
+import io.hstream.Consumer;
+import io.hstream.HStreamClient;
+import io.hstream.Producer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Tens of thousands of concurrent clients, as in production, each producer being a virtual thread
+ * doing blocking writes. Only runs on a JDK with virtual threads, i.e. with {@code
+ * -PtestJavaVersion=21}; the swarm is sized with {@code -Dswarm.producers}, {@code
+ * -Dswarm.consumers}, {@code -Dswarm.streams} and {@code -Dswarm.duration.seconds}.
+ */
+@ExtendWith(ClusterExtension.class)
+public class SwarmTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(SwarmTest.class);
+  private static final int PAYLOAD_SIZE = 128;
+  private static final com.sun.management.OperatingSystemMXBean osMXBean =
+      (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    hStreamClient.close();
+  }
+
+  /**
+   * Jain's fairness index of the counts: 1 when every task did the same amount of work, 1/n when a
+   * single one did all of it.
+   */
+  static double jainFairness(AtomicLongArray counts) {
+    double sum = 0;
+    double sumOfSquares = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      sum += counts.get(i);
+      sumOfSquares += (double) counts.get(i) * counts.get(i);
+    }
+    return sumOfSquares == 0 ? 1 : sum * sum / (counts.length() * sumOfSquares);
+  }
+
+  static long sum(AtomicLongArray counts) {
+    long sum = 0;
+    for (int i = 0; i < counts.length(); i++) {
+      sum += counts.get(i);
+    }
+    return sum;
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @Test
+  @Timeout(1800)
+  void testProducerAndConsumerSwarm() throws Exception {
+    Assumptions.assumeTrue(VirtualThreads.isAvailable(), "virtual threads need Java 21");
+    final int producers = Integer.getInteger("swarm.producers", 10000);
+    final int consumers = Integer.getInteger("swarm.consumers", 500);
+    final int streamCount = Integer.getInteger("swarm.streams", 16);
+    final long durationNanos = TimeUnit.SECONDS.toNanos(Long.getLong("swarm.duration.seconds", 60));
+
+    List<String> streams;
+    List<String> subscriptions = new ArrayList<>();
+    try (Provisioner provisioner = new Provisioner(hStreamClient)) {
+      streams = provisioner.createStreams(streamCount, (short) 3);
+      List<CompletableFuture<String>> futures = new ArrayList<>();
+      for (String stream : streams) {
+        futures.add(provisioner.createSubscriptionAsync(stream));
+      }
+      futures.forEach(future -> subscriptions.add(future.join()));
+    }
+
+    AtomicLongArray received = new AtomicLongArray(consumers);
+    List<Consumer> consumerGroup = new ArrayList<>();
+    for (int i = 0; i < consumers; i++) {
+      int consumerId = i;
+      consumerGroup.add(
+          hStreamClient
+              .newConsumer()
+              .subscription(subscriptions.get(i % streamCount))
+              .name("swarm-consumer-" + i)
+              .rawRecordReceiver(
+                  (receivedRawRecord, responder) -> {
+                    responder.ack();
+                    received.incrementAndGet(consumerId);
+                  })
+              .build());
+    }
+    ConsumerRuntime.get().startAll(consumerGroup);
+
+    AtomicLongArray written = new AtomicLongArray(producers);
+    Histogram latencies = new ConcurrentHistogram(3);
+    AtomicReference<Throwable> firstError = new AtomicReference<>();
+    long cpuBegin = osMXBean.getProcessCpuTime();
+    long begin = System.nanoTime();
+    long deadline = begin + durationNanos;
+    ExecutorService swarm = VirtualThreads.newVirtualThreadPerTaskExecutor().orElseThrow();
+    for (int i = 0; i < producers; i++) {
+      int producerId = i;
+      swarm.execute(
+          () -> {
+            Producer producer =
+                hStreamClient.newProducer().stream(streams.get(producerId % streamCount)).build();
+            PayloadGenerator generator = new PayloadGenerator(producerId);
+            try {
+              while (System.nanoTime() < deadline && firstError.get() == null) {
+                long writeBegin = System.nanoTime();
+                producer.write(buildRecord(generator.next(PAYLOAD_SIZE))).join();
+                latencies.recordValue((System.nanoTime() - writeBegin) / 1000);
+                written.incrementAndGet(producerId);
+              }
+            } catch (Throwable e) {
+              firstError.compareAndSet(null, e);
+            }
+          });
+    }
+    swarm.shutdown();
+
+    long maxHeapUsed = 0;
+    while (!swarm.awaitTermination(1, TimeUnit.SECONDS)) {
+      maxHeapUsed =
+          Math.max(maxHeapUsed, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+    long produceNanos = System.nanoTime() - begin;
+    long totalWritten = sum(written);
+    while (sum(received) < totalWritten && System.nanoTime() < deadline + durationNanos) {
+      Thread.sleep(100);
+    }
+    long totalNanos = System.nanoTime() - begin;
+    long cpuNanos = osMXBean.getProcessCpuTime() - cpuBegin;
+    ConsumerRuntime.get().stopAll(consumerGroup);
+
+    BenchmarkReport report = new BenchmarkReport("swarm");
+    report
+        .row("producers=" + producers + ",consumers=" + consumers + ",streams=" + streamCount)
+        .throughput(totalWritten, totalWritten * PAYLOAD_SIZE, produceNanos)
+        .latency("write", latencies)
+        .put("producer-fairness", jainFairness(written))
+        .put("received", sum(received))
+        .put("consumer-fairness", jainFairness(received))
+        .put("client-cpu-cores", (double) cpuNanos / totalNanos)
+        .put("client-max-heap-MB", maxHeapUsed / 1e6)
+        .put("client-peak-threads", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+    report.write(context, logMsgPathPrefix);
+
+    Assertions.assertNull(firstError.get(), () -> "a producer failed: " + firstError.get());
+    // redeliveries are counted too
+    Assertions.assertTrue(sum(received) >= totalWritten, sum(received) + " < " + totalWritten);
+  }
+}
@@ -0,0 +1,151 @@
+package io.hstream.testing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The durations, failure rates and cluster setup times of the tests over the past runs, kept in
+ * {@code -Dhistory.file} (by default {@code .test-history.json} at the root of the repository) and
+ * updated by {@link HistoryListener} at the end of each run. Each value is a moving average which
+ * gives the last run a weight of {@link #WEIGHT}, so the history follows tests getting faster or
+ * slower, and tests not run for {@link #EXPIRY} are dropped.
+ *
+ * <p>{@link HistoryOrderer} runs the slowest and flakiest tests of a class first, and {@link
+ * ShardFilter} splits the tests between CI workers by their durations. Both read the history from
+ * {@code -Dhistory.snapshot}, the copy of the file the Gradle build takes before its tests start,
+ * so that all the forks of the build see the same history, however far the others got updating the
+ * file. Keep the file between CI runs, e.g. in a cache, for them to have a history to work with.
+ */
+public class TestHistory {
+
+  private static final Logger logger = LoggerFactory.getLogger(TestHistory.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+  static final double WEIGHT = 0.3;
+  static final Duration EXPIRY = Duration.ofDays(30);
+  private static final Map<String, Long> setupMillis = new ConcurrentHashMap<>();
+  private static Map<String, Entry> loaded;
+
+  /** The history of a test. */
+  public static class Entry {
+    public int runs;
+    public double durationMillis;
+    public double setupMillis;
+    public double failureRate;
+    public long lastRunMillis;
+
+    /** The expected duration, with the failures weighing as much as a second run. */
+    double cost() {
+      return durationMillis * (1 + failureRate);
+    }
+
+    void update(long durationMillis, long setupMillis, boolean failed) {
+      double weight = runs == 0 ? 1 : WEIGHT;
+      this.durationMillis += weight * (durationMillis - this.durationMillis);
+      this.setupMillis += weight * (setupMillis - this.setupMillis);
+      this.failureRate += weight * ((failed ? 1 : 0) - failureRate);
+      this.lastRunMillis = System.currentTimeMillis();
+      runs++;
+    }
+  }
+
+  /** The result of a test in this run. */
+  static class Run {
+    final long durationMillis;
+    final long setupMillis;
+    final boolean failed;
+
+    Run(long durationMillis, long setupMillis, boolean failed) {
+      this.durationMillis = durationMillis;
+      this.setupMillis = setupMillis;
+      this.failed = failed;
+    }
+  }
+
+  static Path file() {
+    return Paths.get(System.getProperty("history.file", "../.test-history.json"));
+  }
+
+  /** The copy of the history taken before the run, null if the run is not a Gradle build. */
+  static Path snapshotFile() {
+    String snapshot = System.getProperty("history.snapshot");
+    return snapshot == null ? null : Paths.get(snapshot);
+  }
+
+  static String key(String className, String methodName) {
+    return className + "#" + methodName;
+  }
+
+  /** Records the time the extension took to start the cluster of the test. */
+  public static void recordSetup(ExtensionContext context, long millis) {
+    String key =
+        key(context.getRequiredTestClass().getName(), context.getRequiredTestMethod().getName());
+    // the invocations of a parameterized test add up, as their durations do
+    setupMillis.merge(key, millis, Long::sum);
+  }
+
+  static long takeSetupMillis(String key) {
+    Long millis = setupMillis.remove(key);
+    return millis == null ? 0 : millis;
+  }
+
+  /** The history as the run began, read once from the snapshot, or from the file without one. */
+  public static synchronized Map<String, Entry> get() {
+    if (loaded == null) {
+      Path file = snapshotFile() != null ? snapshotFile() : file();
+      try {
+        loaded = read(file);
+      } catch (IOException e) {
+        logger.warn("ignoring the test history {}: {}", file, e.toString());
+        loaded = new TreeMap<>();
+      }
+    }
+    return loaded;
+  }
+
+  static Map<String, Entry> read(Path file) throws IOException {
+    if (!Files.exists(file) || Files.size(file) == 0) {
+      return new TreeMap<>();
+    }
+    return mapper.readValue(file.toFile(), new TypeReference<TreeMap<String, Entry>>() {});
+  }
+
+  /**
+   * Adds the runs to the history in the file, under a lock since the Gradle forks and parallel
+   * builds share it.
+   */
+  static void update(Path file, Map<String, Run> runs) throws IOException {
+    Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    try (FileChannel channel =
+            FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock ignored = channel.lock()) {
+      Map<String, Entry> history = read(file);
+      runs.forEach(
+          (key, run) ->
+              history
+                  .computeIfAbsent(key, k -> new Entry())
+                  .update(run.durationMillis, run.setupMillis, run.failed));
+      long expired = System.currentTimeMillis() - EXPIRY.toMillis();
+      history.values().removeIf(entry -> entry.lastRunMillis < expired);
+
+      Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+      mapper.writerWithDefaultPrettyPrinter().writeValue(temp.toFile(), history);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package io.hstream.testing;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+/** The moving averages of {@link TestHistory} and the shards of {@link ShardFilter}. */
+public class TestHistoryTest {
+
+  private static TestHistory.Entry entry(double durationMillis) {
+    TestHistory.Entry entry = new TestHistory.Entry();
+    entry.update((long) durationMillis, 0, false);
+    return entry;
+  }
+
+  @Test
+  void testFirstRunIsTheHistory() {
+    TestHistory.Entry entry = new TestHistory.Entry();
+    entry.update(1000, 200, true);
+    Assertions.assertEquals(1, entry.runs);
+    Assertions.assertEquals(1000, entry.durationMillis, 1e-9);
+    Assertions.assertEquals(200, entry.setupMillis, 1e-9);
+    Assertions.assertEquals(1, entry.failureRate, 1e-9);
+    Assertions.assertTrue(entry.lastRunMillis > 0);
+  }
+
+  @Test
+  void testLaterRunsMoveTheAverageByTheWeight() {
+    TestHistory.Entry entry = entry(1000);
+    entry.update(2000, 0, true);
+    Assertions.assertEquals(2, entry.runs);
+    Assertions.assertEquals(1000 + TestHistory.WEIGHT * 1000, entry.durationMillis, 1e-9);
+    Assertions.assertEquals(TestHistory.WEIGHT, entry.failureRate, 1e-9);
+    entry.update(2000, 0, false);
+    Assertions.assertEquals(TestHistory.WEIGHT * (1 - TestHistory.WEIGHT), entry.failureRate, 1e-9);
+  }
+
+  @Test
+  void testAssignDealsTheLongestTestsFirstToTheLeastLoadedShard() {
+    Map<String, TestHistory.Entry> history = new TreeMap<>();
+    history.put("A#a", entry(100));
+    history.put("A#b", entry(60));
+    history.put("B#c", entry(50));
+    history.put("B#d", entry(40));
+    history.put("C#e", entry(10));
+    Map<String, Integer> shards = ShardFilter.assign(history, 2);
+    Assertions.assertEquals(Map.of("A#a", 0, "A#b", 1, "B#c", 1, "B#d", 0, "C#e", 1), shards);
+  }
+
+  @Test
+  void testAssignPutsEveryTestInOneShardWhateverTheOrderOfTheHistory() {
+    Map<String, TestHistory.Entry> history = new TreeMap<>();
+    Map<String, TestHistory.Entry> reversed = new TreeMap<>(Comparator.reverseOrder());
+    for (int i = 0; i < 50; i++) {
+      // ties on the duration are broken by the name
+      TestHistory.Entry entry = entry(i % 7 * 100);
+      history.put("T#test" + i, entry);
+      reversed.put("T#test" + i, entry);
+    }
+    Map<String, Integer> shards = ShardFilter.assign(history, 4);
+    Assertions.assertEquals(history.keySet(), shards.keySet());
+    shards.values().forEach(shard -> Assertions.assertTrue(shard >= 0 && shard < 4));
+    Assertions.assertEquals(shards, ShardFilter.assign(reversed, 4));
+  }
+}
@@ -15,19 +15,15 @@ import io.hstream.Subscription;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Duration;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import org.jetbrains.annotations.NotNull;
@@ -39,9 +35,14 @@ import org.testcontainers.containers.ContainerLaunchException;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.containers.wait.strategy.Wait;
 import org.testcontainers.utility.DockerImageName;
+import org.testcontainers.utility.MountableFile;
 
 public class TestUtils {
 
+  // the producer ids of the writes of produce without one, above those the tests number themselves
+  static final int FIRST_IMPLICIT_PRODUCER = 1 << 20;
+  private static final AtomicInteger implicitProducers = new AtomicInteger(FIRST_IMPLICIT_PRODUCER);
+
   private static final Logger logger = LoggerFactory.getLogger(TestUtils.class);
   private static final DockerImageName defaultHstreamImageName =
       DockerImageName.parse("hstreamdb/hstream:latest");
@@ -67,8 +68,12 @@ public class TestUtils {
   }
 
   public static String randStream(HStreamClient c) {
+    return randStream(c, (short) 3);
+  }
+
+  public static String randStream(HStreamClient c, short replicationFactor) {
     String streamName = "test_stream_" + randText();
-    c.createStream(streamName, (short) 3);
+    c.createStream(streamName, replicationFactor);
     return streamName;
   }
 
@@ -93,8 +98,12 @@ public class TestUtils {
 
   // -----------------------------------------------------------------------------------------------
 
-  public static GenericContainer<?> makeZooKeeper() {
-    return new GenericContainer<>(DockerImageName.parse("zookeeper")).withNetworkMode("host");
+  /** A ZooKeeper listening on the port of the {@link ForkSlot} of the JVM. */
+  public static GenericContainer<?> makeZooKeeper() throws IOException {
+    return new GenericContainer<>(DockerImageName.parse("zookeeper"))
+        .withNetworkMode("host")
+        .withCopyFileToContainer(
+            MountableFile.forHostPath(ForkSlot.current().zooConfig()), "/conf/zoo.cfg");
   }
 
   private static DockerImageName getHstreamImageName() {
@@ -109,7 +118,7 @@ public class TestUtils {
     }
   }
 
-  public static GenericContainer<?> makeHStore(Path dataDir) {
+  public static GenericContainer<?> makeHStore(Path dataDir, LogSettings logSettings) {
     return new GenericContainer<>(getHstreamImageName())
         .withNetworkMode("host")
         .withFileSystemBind(
@@ -122,7 +131,12 @@ public class TestUtils {
                 + "--use-tcp "
                 + "--tcp-host "
                 + "127.0.0.1 "
-                + "--user-admin-port 6440 "
+                + "--user-admin-port "
+                + ForkSlot.current().storeAdminPort()
+                + " "
+                + (logSettings.storeLevel != null
+                    ? "--loglevel " + logSettings.storeLevel + " "
+                    : "")
                 + "--no-interactive")
         .waitingFor(Wait.forLogMessage(".*LogDevice Cluster running.*", 1));
   }
@@ -134,7 +148,8 @@ public class TestUtils {
       Path dataDir,
       String zkHost,
       String hstoreHost,
-      int serverId) {
+      int serverId,
+      LogSettings logSettings) {
     return new GenericContainer<>(getHstreamImageName())
         .withNetworkMode("host")
         .withFileSystemBind(dataDir.toAbsolutePath().toString(), "/data/hstore", BindMode.READ_ONLY)
@@ -154,14 +169,15 @@ public class TestUtils {
                 + serverId
                 + " --zkuri "
                 + zkHost
-                + ":2181"
+                + ":"
+                + ForkSlot.current().zkPort()
                 + " --store-config "
                 + "/data/hstore/logdevice.conf "
                 + " --store-admin-port "
-                + "6440"
+                + ForkSlot.current().storeAdminPort()
                 + " --log-level "
-                + "debug"
-                + " --log-with-color"
+                + logSettings.serverLevel
+                + (logSettings.color ? " --log-with-color" : "")
                 + " --store-log-level "
                 + "error")
         .waitingFor(Wait.forLogMessage(".*Server is started on port.*", 1));
@@ -169,8 +185,8 @@ public class TestUtils {
 
   // -----------------------------------------------------------------------------------------------
 
-  public static void writeLog(ExtensionContext context, String entryName, String grp, String logs)
-      throws Exception {
+  /** The file of a log entry of the test, its directory created. */
+  public static File logFile(ExtensionContext context, String entryName, String grp) {
     String testClassName = context.getRequiredTestClass().getSimpleName();
     String testName = context.getTestMethod().get().getName();
     String fileName = "../.logs/" + testClassName + "/" + testName + "/" + grp + "/" + entryName;
@@ -178,7 +194,21 @@ public class TestUtils {
 
     File file = new File(fileName);
     file.getParentFile().mkdirs();
-    BufferedWriter writer = new BufferedWriter(new FileWriter(fileName));
+    return file;
+  }
+
+  /**
+   * Writes a log entry of the test, or appends it to the {@link LogArchive} of the test with {@code
+   * -Dlogs.archive=true}.
+   */
+  public static void writeLog(ExtensionContext context, String entryName, String grp, String logs)
+      throws Exception {
+    File file = logFile(context, entryName, grp);
+    if (LogArchive.isEnabled()) {
+      LogArchive.append(file.getParentFile().toPath(), entryName, logs);
+      return;
+    }
+    BufferedWriter writer = new BufferedWriter(new FileWriter(file));
     writer.write(logs);
     writer.close();
   }
@@ -280,77 +310,109 @@ public class TestUtils {
                   }
                 }))
             .build();
+    ConsumerRuntime runtime = ConsumerRuntime.get();
     consumer.addListener(
         new FailedConsumerListener(
             (fs, e) -> {
               logger.info("consumer failed, e:{}", e.getMessage());
               future.completeExceptionally(e);
             }),
-        new ScheduledThreadPoolExecutor(1));
-    consumer.startAsync().awaitRunning();
-    return future.whenCompleteAsync(
-        (x, y) -> {
-          consumer.stopAsync().awaitTerminated();
-        });
+        runtime.executor());
+    runtime.start(consumer).join();
+    CompletableFuture<Void> stopped = new CompletableFuture<>();
+    future.whenComplete(
+        (x, e) ->
+            runtime
+                .stop(consumer)
+                .whenComplete(
+                    (y, z) -> {
+                      if (e != null) {
+                        stopped.completeExceptionally(e);
+                      } else {
+                        stopped.complete(null);
+                      }
+                    }));
+    return stopped;
   }
 
-  public static Consumer createConsumerCollectStringPayload(
+  public static Consumer createConsumerCollectPayloadDigests(
       HStreamClient client,
       String subscription,
       String name,
-      List<String> records,
-      CountDownLatch latch,
-      ReentrantLock lock) {
+      ConcurrentPayloadDigests digests,
+      CountDownLatch latch) {
     return client
         .newConsumer()
         .subscription(subscription)
         .name(name)
         .rawRecordReceiver(
             (receivedRawRecord, responder) -> {
-              lock.lock();
-              records.add(Arrays.toString(receivedRawRecord.getRawRecord()));
-              lock.unlock();
+              digests.add(receivedRawRecord.getRawRecord());
               responder.ack();
               latch.countDown();
             })
         .build();
   }
 
-  public static ArrayList<String> doProduce(Producer producer, int payloadSize, int recordsNums) {
-    return produce(producer, payloadSize, recordsNums).records;
+  public static PayloadDigests doProduce(Producer producer, int payloadSize, int recordsNums)
+      throws InterruptedException {
+    return produce(producer, payloadSize, recordsNums).digests;
   }
 
-  public static ArrayList<String> doProduceAndGatherRid(
-      Producer producer, int payloadSize, int recordsNums) {
+  public static RecordIdSet doProduceAndGatherRid(
+      Producer producer, int payloadSize, int recordsNums) throws InterruptedException {
     return produce(producer, payloadSize, recordsNums).ids;
   }
 
   public static class RecordsPair {
-    public ArrayList<String> ids;
-    public ArrayList<String> records;
+    public RecordIdSet ids;
+    public PayloadDigests digests;
   }
 
-  public static RecordsPair produce(Producer producer, int payloadSize, int count) {
+  public static RecordsPair produce(Producer producer, int payloadSize, int count)
+      throws InterruptedException {
     return produce(producer, payloadSize, count, null);
   }
 
-  public static RecordsPair produce(Producer producer, int payloadSize, int count, String key) {
-    Random rand = new Random();
-    byte[] rRec = new byte[payloadSize];
-    var records = new ArrayList<String>();
-    List<CompletableFuture<String>> xs = new ArrayList<>(count);
+  public static RecordsPair produce(Producer producer, int payloadSize, int count, String key)
+      throws InterruptedException {
+    return produce(
+        new PipelinedWriter(producer, PipelinedWriter.DEFAULT_WINDOW), payloadSize, count, key);
+  }
+
+  public static RecordsPair produce(PipelinedWriter writer, int payloadSize, int count, String key)
+      throws InterruptedException {
+    return produce(writer, payloadSize, count, key, implicitProducers.getAndIncrement());
+  }
+
+  /**
+   * Writes the payloads of {@code producer}, whose id tells apart the payloads of the producers of
+   * a test: the other overloads take a new id from {@link #FIRST_IMPLICIT_PRODUCER} on at every
+   * call, so no two calls write the same payloads.
+   */
+  public static RecordsPair produce(
+      PipelinedWriter writer, int payloadSize, int count, String key, int producer)
+      throws InterruptedException {
+    PayloadGenerator generator = new PayloadGenerator(producer);
+    var digests = new PayloadDigests(count);
+    var ids = new ConcurrentRecordIdSet(count);
     for (int i = 0; i < count; i++) {
-      rand.nextBytes(rRec);
+      byte[] rRec = generator.next(payloadSize);
       Record recordToWrite = Record.newBuilder().orderingKey(key).rawRecord(rRec).build();
-      records.add(Arrays.toString(rRec));
-      xs.add(producer.write(recordToWrite));
+      digests.add(rRec);
+      writer.write(
+          recordToWrite,
+          (id, e) -> {
+            if (id != null) {
+              ids.add(id);
+            }
+          });
     }
+    writer.awaitCompletion();
 
     RecordsPair p = new RecordsPair();
-    p.records = records;
-    ArrayList<String> ids = new ArrayList<>(count);
-    xs.forEach(x -> ids.add(x.join()));
-    p.ids = ids;
+    p.digests = digests;
+    p.ids = ids.snapshot();
     return p;
   }
 
@@ -0,0 +1,275 @@
+package io.hstream.testing;
+
+import com.github.dockerjava.api.model.Capability;
+import eu.rekawek.toxiproxy.Proxy;
+import eu.rekawek.toxiproxy.ToxiproxyClient;
+import eu.rekawek.toxiproxy.model.Toxic;
+import eu.rekawek.toxiproxy.model.ToxicDirection;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.Container;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.utility.DockerImageName;
+
+/**
+ * A Toxiproxy container sitting between the clients and the HServers, and between the HServers
+ * themselves.
+ *
+ * <p>All containers run on the host network, so the proxies listen on a second loopback address
+ * ({@link #PROXY_ADDRESS}) with the same ports the HServers bind on 127.0.0.1. Every HServer
+ * advertises the proxy address, which makes both the client requests (including the ones redirected
+ * by the cluster) and the server-to-server requests go through Toxiproxy.
+ *
+ * <p>Packet loss is added by {@code tc netem} on the loopback interface of the host, from a
+ * container with {@code NET_ADMIN} started with the first lossy impairment: the packets to and from
+ * the proxy ports of a link go to a band of their own, whose netem qdisc loses them. The root qdisc
+ * of {@code lo} is the host's, so only one test JVM at a time can impair it, and it is removed at
+ * {@link #close}.
+ */
+public class ToxiproxyNetwork implements AutoCloseable {
+
+  static final String PROXY_ADDRESS = "127.0.0.11";
+
+  private static final Logger logger = LoggerFactory.getLogger(ToxiproxyNetwork.class);
+  private static final DockerImageName toxiproxyImageName =
+      DockerImageName.parse("shopify/toxiproxy:2.1.0");
+  private static final DockerImageName netemImageName =
+      DockerImageName.parse("nicolaka/netshoot:v0.5");
+  // the bands of prio 1:1 to 1:3 keep the default priorities, those of the links are only reached
+  // through the filters on their ports
+  private static final int FIRST_LOSSY_BAND = 4;
+
+  public enum Link {
+    CLIENT_TO_SERVER,
+    SERVER_TO_SERVER
+  }
+
+  private final GenericContainer<?> container;
+  private final ToxiproxyClient client;
+  private final Map<Link, List<Proxy>> proxies = new EnumMap<>(Link.class);
+  private final Map<Link, Impairment> impairments = new EnumMap<>(Link.class);
+  private final Map<Link, List<Integer>> ports = new EnumMap<>(Link.class);
+  private GenericContainer<?> netem;
+
+  private ToxiproxyNetwork(GenericContainer<?> container) {
+    this.container = container;
+    this.client = new ToxiproxyClient("127.0.0.1", ForkSlot.current().toxiproxyApiPort());
+    for (Link link : Link.values()) {
+      proxies.put(link, new ArrayList<>());
+      ports.put(link, new ArrayList<>());
+      impairments.put(link, Impairment.none());
+    }
+  }
+
+  public static ToxiproxyNetwork start() {
+    GenericContainer<?> container =
+        new GenericContainer<>(toxiproxyImageName)
+            .withNetworkMode("host")
+            .withCommand("-host=127.0.0.1", "-port=" + ForkSlot.current().toxiproxyApiPort())
+            .waitingFor(Wait.forLogMessage(".*API HTTP server starting.*", 1));
+    container.start();
+    return new ToxiproxyNetwork(container);
+  }
+
+  /**
+   * Creates the proxies in front of one HServer.
+   *
+   * @return the address the HServer should advertise
+   */
+  public String proxyHServer(int serverId, String upstreamHost, int port, int internalPort)
+      throws IOException {
+    proxies
+        .get(Link.CLIENT_TO_SERVER)
+        .add(
+            client.createProxy(
+                "hserver-" + serverId, PROXY_ADDRESS + ":" + port, upstreamHost + ":" + port));
+    proxies
+        .get(Link.SERVER_TO_SERVER)
+        .add(
+            client.createProxy(
+                "hserver-internal-" + serverId,
+                PROXY_ADDRESS + ":" + internalPort,
+                upstreamHost + ":" + internalPort));
+    ports.get(Link.CLIENT_TO_SERVER).add(port);
+    ports.get(Link.SERVER_TO_SERVER).add(internalPort);
+    return PROXY_ADDRESS;
+  }
+
+  /** Replaces the toxics of every proxy on the link with the given impairment. */
+  public void impair(Link link, Impairment impairment) throws IOException {
+    logger.info("impair {} with {}", link, impairment);
+    for (Proxy proxy : proxies.get(link)) {
+      for (Toxic toxic : proxy.toxics().getAll()) {
+        toxic.remove();
+      }
+      for (ToxicDirection direction : ToxicDirection.values()) {
+        String suffix = "-" + direction.name().toLowerCase();
+        if (impairment.latencyMs > 0 || impairment.jitterMs > 0) {
+          // split the round trip between both directions, the odd millisecond downstream
+          boolean upstream = direction == ToxicDirection.UPSTREAM;
+          proxy
+              .toxics()
+              .latency("latency" + suffix, direction, half(impairment.latencyMs, upstream))
+              .setJitter(half(impairment.jitterMs, upstream));
+        }
+        if (impairment.bandwidthKBps > 0) {
+          proxy.toxics().bandwidth("bandwidth" + suffix, direction, impairment.bandwidthKBps);
+        }
+      }
+    }
+    setLoss(link, impairment.lossPercent);
+    impairments.put(link, impairment);
+  }
+
+  private static long half(long value, boolean first) {
+    return first ? value / 2 : value - value / 2;
+  }
+
+  /** Loses {@code lossPercent} of the packets to and from the proxies of the link. */
+  private void setLoss(Link link, double lossPercent) throws IOException {
+    if (netem == null) {
+      if (lossPercent == 0) {
+        return;
+      }
+      startNetem();
+    }
+    int band = FIRST_LOSSY_BAND + link.ordinal();
+    tc(
+        String.format(
+            Locale.ROOT,
+            "qdisc change dev lo parent 1:%d handle %d0: netem loss %.3f%%",
+            band,
+            band,
+            lossPercent));
+  }
+
+  private void startNetem() throws IOException {
+    netem =
+        new GenericContainer<>(netemImageName)
+            .withNetworkMode("host")
+            .withCreateContainerCmdModifier(
+                cmd -> cmd.getHostConfig().withCapAdd(Capability.NET_ADMIN))
+            .withCommand("sleep", "infinity");
+    netem.start();
+    tc(
+        "qdisc add dev lo root handle 1: prio bands "
+            + (FIRST_LOSSY_BAND + Link.values().length - 1));
+    for (Link link : Link.values()) {
+      int band = FIRST_LOSSY_BAND + link.ordinal();
+      tc("qdisc add dev lo parent 1:" + band + " handle " + band + "0: netem");
+      for (int port : ports.get(link)) {
+        for (String end : new String[] {"dst", "src"}) {
+          tc(
+              String.format(
+                  "filter add dev lo parent 1: protocol ip prio 1 u32 match ip %s %s/32"
+                      + " match ip %cport %d 0xffff flowid 1:%d",
+                  end, PROXY_ADDRESS, end.charAt(0), port, band));
+        }
+      }
+    }
+  }
+
+  /** Runs {@code tc} with the arguments separated by spaces in the netem container. */
+  private void tc(String args) throws IOException {
+    String command = "tc " + args;
+    Container.ExecResult result;
+    try {
+      result = netem.execInContainer(command.split(" "));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    }
+    if (result.getExitCode() != 0) {
+      throw new IOException(command + " failed: " + result.getStderr());
+    }
+  }
+
+  public Impairment getImpairment(Link link) {
+    return impairments.get(link);
+  }
+
+  /** Removes every toxic from every link. */
+  public void heal() throws IOException {
+    for (Link link : Link.values()) {
+      impair(link, Impairment.none());
+    }
+  }
+
+  public String getLogs() {
+    return container.getLogs();
+  }
+
+  @Override
+  public void close() {
+    if (netem != null) {
+      try {
+        tc("qdisc del dev lo root");
+      } catch (IOException e) {
+        logger.warn("cannot remove the netem qdiscs of lo", e);
+      }
+      netem.close();
+      netem = null;
+    }
+    container.close();
+  }
+
+  /**
+   * Network conditions of a link.
+   *
+   * <p>Latency and bandwidth are Toxiproxy toxics. Packet loss is not: Toxiproxy works on TCP
+   * streams rather than on packets, so loss is done by {@code tc netem}, and a lost packet costs
+   * the connection a retransmission as it would between zones.
+   */
+  public static class Impairment {
+    final long latencyMs;
+    final long jitterMs;
+    final long bandwidthKBps;
+    final double lossPercent;
+
+    private Impairment(long latencyMs, long jitterMs, long bandwidthKBps, double lossPercent) {
+      this.latencyMs = latencyMs;
+      this.jitterMs = jitterMs;
+      this.bandwidthKBps = bandwidthKBps;
+      this.lossPercent = lossPercent;
+    }
+
+    public static Impairment none() {
+      return new Impairment(0, 0, 0, 0);
+    }
+
+    /** Adds {@code latencyMs} +/- {@code jitterMs} to the round-trip time. */
+    public Impairment withLatency(long latencyMs, long jitterMs) {
+      return new Impairment(latencyMs, jitterMs, bandwidthKBps, lossPercent);
+    }
+
+    /** Caps the bandwidth of each direction of each connection. */
+    public Impairment withBandwidth(long bandwidthKBps) {
+      return new Impairment(latencyMs, jitterMs, bandwidthKBps, lossPercent);
+    }
+
+    /** Loses {@code lossPercent} of the packets of each direction, e.g. 0.5. */
+    public Impairment withLoss(double lossPercent) {
+      return new Impairment(latencyMs, jitterMs, bandwidthKBps, lossPercent);
+    }
+
+    @Override
+    public String toString() {
+      return "latency="
+          + latencyMs
+          + "ms,jitter="
+          + jitterMs
+          + "ms,bandwidth="
+          + (bandwidthKBps > 0 ? bandwidthKBps + "KB/s" : "unlimited")
+          + ",loss="
+          + lossPercent
+          + "%";
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package io.hstream.testing;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Access to the virtual threads of Java 21 from code compiled for Java 11. They are only available
+ * when the tests run on a recent JDK, see {@code -PtestJavaVersion} in the build.
+ */
+public class VirtualThreads {
+
+  private VirtualThreads() {}
+
+  /** An executor starting a virtual thread per task, if the running JDK has them. */
+  public static Optional<ExecutorService> newVirtualThreadPerTaskExecutor() {
+    try {
+      return Optional.of(
+          (ExecutorService)
+              Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+    } catch (NoSuchMethodException e) {
+      return Optional.empty();
+    } catch (InvocationTargetException e) {
+      // a preview feature which is not enabled
+      if (e.getCause() instanceof UnsupportedOperationException) {
+        return Optional.empty();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static boolean isAvailable() {
+    var executor = newVirtualThreadPerTaskExecutor();
+    executor.ifPresent(ExecutorService::shutdown);
+    return executor.isPresent();
+  }
+}
@@ -0,0 +1,15 @@
+package io.hstream.testing;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Routes the traffic of a {@link ClusterExtension} cluster through a Toxiproxy container, so that
+ * the test can impair it with {@link ToxiproxyNetwork#impair}. Annotated test classes receive the
+ * network through {@code setToxiproxyNetwork(ToxiproxyNetwork)}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface WithToxiproxy {}
@@ -0,0 +1,308 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.makeBufferedProducer;
+import static io.hstream.testing.TestUtils.randSubscription;
+
+import io.hstream.BufferedProducer;
+import io.hstream.Consumer;
+import io.hstream.HStreamClient;
+import io.hstream.Producer;
+import io.hstream.Record;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a {@link WorkloadSpec} against a cluster: creates its streams and consumer groups, then has
+ * every producer task issue the operations of the mix at its share of the target rate until the
+ * duration is over, and reports what each operation achieved.
+ *
+ * <p>A spec with {@link WorkloadSpec.Chaos chaos} runs its timeline on the {@link ChaosScheduler}
+ * of the test from the start of the producers: operations failing meanwhile are counted as errors,
+ * and only the writes which succeeded are expected to be received.
+ */
+public class WorkloadRunner {
+
+  static final List<String> OPERATIONS =
+      List.of("write", "listStreams", "listSubscriptions", "subscriptionChurn");
+
+  private static final Logger logger = LoggerFactory.getLogger(WorkloadRunner.class);
+  private final HStreamClient client;
+  private final WorkloadSpec spec;
+  private final Map<String, Histogram> latencies = new LinkedHashMap<>();
+  private final Map<String, LongAdder> counts = new LinkedHashMap<>();
+  private final Map<String, LongAdder> errors = new LinkedHashMap<>();
+  private final ChaosScheduler chaosScheduler;
+  private final LongAdder received = new LongAdder();
+  private final AtomicReference<Throwable> firstError = new AtomicReference<>();
+
+  public WorkloadRunner(HStreamClient client, WorkloadSpec spec) {
+    this(client, spec, null);
+  }
+
+  /** A runner injecting the chaos of the spec with {@code chaosScheduler}. */
+  public WorkloadRunner(HStreamClient client, WorkloadSpec spec, ChaosScheduler chaosScheduler) {
+    if (spec.chaos.isEnabled() && chaosScheduler == null) {
+      throw new IllegalArgumentException(
+          spec.name + " has chaos, run it from a test with a setChaosScheduler method");
+    }
+    this.client = client;
+    this.spec = spec;
+    this.chaosScheduler = spec.chaos.isEnabled() ? chaosScheduler : null;
+    for (String operation : OPERATIONS) {
+      latencies.put(operation, new ConcurrentHistogram(3));
+      counts.put(operation, new LongAdder());
+      errors.put(operation, new LongAdder());
+    }
+  }
+
+  public BenchmarkReport run() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("workload-" + spec.name);
+    List<String> streams;
+    List<Consumer> consumers = new ArrayList<>();
+    try (Provisioner provisioner = new Provisioner(client)) {
+      streams = provisioner.createStreams(spec.streams.count, spec.streams.replicationFactor);
+      for (String stream : streams) {
+        List<String> groups = provisioner.createSubscriptions(stream, spec.consumers.groups);
+        for (int group = 0; group < groups.size(); group++) {
+          for (int i = 0; i < spec.consumers.perGroup; i++) {
+            consumers.add(newConsumer(groups.get(group), "consumer-" + group + "-" + i));
+          }
+        }
+      }
+      provisioner.report(report);
+    }
+    ConsumerRuntime.get().startAll(consumers);
+
+    if (chaosScheduler != null) {
+      chaosScheduler.schedule(spec.chaos.timeline(spec.durationSeconds)).start();
+    }
+    long begin = System.nanoTime();
+    long deadline = begin + TimeUnit.SECONDS.toNanos(spec.durationSeconds);
+    List<Thread> tasks = new ArrayList<>();
+    for (int i = 0; i < spec.producers.count; i++) {
+      String stream = streams.get(i % streams.size());
+      int taskId = i;
+      Thread task = new Thread(() -> runTask(taskId, stream, deadline), "workload-" + i);
+      task.start();
+      tasks.add(task);
+    }
+    for (Thread task : tasks) {
+      task.join();
+    }
+    long elapsed = System.nanoTime() - begin;
+    if (chaosScheduler != null) {
+      // everything is back up before the drain
+      chaosScheduler.awaitCompletion(Duration.ofSeconds(spec.drainSeconds));
+    }
+
+    long written = written();
+    long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(spec.drainSeconds);
+    while (received.sum() < written * spec.consumers.groups && System.nanoTime() < drainDeadline) {
+      Thread.sleep(100);
+    }
+    long consumeElapsed = System.nanoTime() - begin;
+    ConsumerRuntime.get().stopAll(consumers);
+
+    if (firstError.get() != null) {
+      throw new IllegalStateException(spec.name + " failed", firstError.get());
+    }
+    for (String operation : OPERATIONS) {
+      long count = counts.get(operation).sum();
+      if (count > 0) {
+        BenchmarkReport.Row row =
+            report.row(operation).put("ops", count).put("ops/s", count / (elapsed / 1e9));
+        if (chaosScheduler != null) {
+          row.put("errors", errors.get(operation).sum());
+        }
+        row.latency("latency", latencies.get(operation));
+      }
+    }
+    report
+        .row("consume")
+        .put("ops", received.sum())
+        .put("ops/s", received.sum() / (consumeElapsed / 1e9))
+        .put("expected", written * spec.consumers.groups);
+    return report;
+  }
+
+  /** The writes which succeeded. */
+  public long written() {
+    return counts.get("write").sum() - errors.get("write").sum();
+  }
+
+  public long received() {
+    return received.sum();
+  }
+
+  private Consumer newConsumer(String subscription, String name) {
+    return client
+        .newConsumer()
+        .subscription(subscription)
+        .name(name)
+        .rawRecordReceiver(
+            (receivedRawRecord, responder) -> {
+              received.increment();
+              if (spec.consumers.ackRatio >= 1
+                  || ThreadLocalRandom.current().nextDouble() < spec.consumers.ackRatio) {
+                responder.ack();
+              }
+            })
+        .build();
+  }
+
+  private void runTask(int taskId, String stream, long deadline) {
+    BufferedProducer bufferedProducer = null;
+    Producer producer;
+    if (spec.producers.batchSize > 0) {
+      bufferedProducer = makeBufferedProducer(client, stream, spec.producers.batchSize);
+      producer = bufferedProducer;
+    } else {
+      producer = client.newProducer().stream(stream).build();
+    }
+    PipelinedWriter writer = new PipelinedWriter(producer, spec.producers.window);
+    PayloadGenerator payloads = new PayloadGenerator(taskId);
+    SplittableRandom random = new SplittableRandom(PayloadGenerator.seed() + taskId);
+    Chooser operations = Chooser.weighted(OPERATIONS, spec.mix);
+    Chooser keys = Chooser.orderingKeys(spec.orderingKeys);
+    long interval =
+        spec.producers.targetRate > 0
+            ? (long) (1e9 * spec.producers.count / spec.producers.targetRate)
+            : 0;
+
+    try {
+      long next = System.nanoTime();
+      while (System.nanoTime() < deadline && firstError.get() == null) {
+        if (interval > 0) {
+          next += interval;
+          LockSupport.parkNanos(next - System.nanoTime());
+        }
+        String operation = OPERATIONS.get(operations.next(random));
+        if (operation.equals("write")) {
+          Record.Builder record = Record.newBuilder().rawRecord(payloads.next(payloadSize(random)));
+          if (keys != null) {
+            record.orderingKey("key-" + keys.next(random));
+          }
+          writer.write(record.build(), chaosScheduler == null ? null : this::countWriteError);
+        } else {
+          long begin = System.nanoTime();
+          try {
+            runMetadataOperation(operation, stream);
+          } catch (RuntimeException e) {
+            if (chaosScheduler == null) {
+              throw e;
+            }
+            errors.get(operation).increment();
+          }
+          latencies.get(operation).recordValue((System.nanoTime() - begin) / 1000);
+        }
+        counts.get(operation).increment();
+      }
+      if (bufferedProducer != null) {
+        bufferedProducer.close();
+      }
+      try {
+        writer.awaitCompletion();
+      } catch (CompletionException e) {
+        if (chaosScheduler == null) {
+          throw e;
+        }
+      }
+      latencies.get("write").add(writer.latencies());
+    } catch (Throwable e) {
+      logger.error("workload task {} failed", taskId, e);
+      firstError.compareAndSet(null, e);
+    }
+  }
+
+  private void countWriteError(String recordId, Throwable e) {
+    if (e != null) {
+      errors.get("write").increment();
+    }
+  }
+
+  private int payloadSize(SplittableRandom random) {
+    WorkloadSpec.Payload payload = spec.payload;
+    return payload.distribution.equals("uniform")
+        ? random.nextInt(payload.min, payload.max + 1)
+        : payload.size;
+  }
+
+  private void runMetadataOperation(String operation, String stream) {
+    switch (operation) {
+      case "listStreams":
+        client.listStreams();
+        break;
+      case "listSubscriptions":
+        client.listSubscriptions();
+        break;
+      case "subscriptionChurn":
+        client.deleteSubscription(randSubscription(client, stream));
+        break;
+      default:
+        throw new IllegalArgumentException("unknown operation " + operation);
+    }
+  }
+
+  /** Draws indexes from a discrete distribution by binary search over its cumulative weights. */
+  static class Chooser {
+    private final double[] cumulative;
+
+    private Chooser(double[] weights) {
+      cumulative = new double[weights.length];
+      double sum = 0;
+      for (int i = 0; i < weights.length; i++) {
+        sum += weights[i];
+        cumulative[i] = sum;
+      }
+      for (int i = 0; i < weights.length; i++) {
+        cumulative[i] /= sum;
+      }
+    }
+
+    static Chooser weighted(List<String> names, Map<String, Double> weights) {
+      double[] w = new double[names.size()];
+      for (int i = 0; i < w.length; i++) {
+        w[i] = weights.getOrDefault(names.get(i), 0.0);
+      }
+      return new Chooser(w);
+    }
+
+    /** Ordering key indexes, or null if records have no ordering key. */
+    static Chooser orderingKeys(WorkloadSpec.OrderingKeys keys) {
+      if (keys.count == 0) {
+        return null;
+      }
+      double[] w = new double[keys.count];
+      for (int i = 0; i < w.length; i++) {
+        w[i] = keys.distribution.equals("zipfian") ? 1 / Math.pow(i + 1, keys.exponent) : 1;
+      }
+      return new Chooser(w);
+    }
+
+    int next(SplittableRandom random) {
+      double r = random.nextDouble();
+      int i = Arrays.binarySearch(cumulative, r);
+      i = i >= 0 ? i + 1 : -i - 1;
+      // an exact match ends a weight, skip the zero weights after it
+      while (i < cumulative.length - 1 && cumulative[i] <= r) {
+        i++;
+      }
+      return Math.min(i, cumulative.length - 1);
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package io.hstream.testing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A workload described in YAML or JSON, run by {@link WorkloadRunner}. Every field has a default,
+ * so a spec only states what differs from it, and unknown fields are rejected. See the specs in
+ * {@code src/test/resources/workloads} for examples.
+ */
+public class WorkloadSpec {
+
+  public String name = "workload";
+  public int durationSeconds = 30;
+  /** How long to wait after the run for the consumers to receive what was written. */
+  public int drainSeconds = 30;
+
+  public Streams streams = new Streams();
+  public Producers producers = new Producers();
+  public Payload payload = new Payload();
+  public OrderingKeys orderingKeys = new OrderingKeys();
+  public Consumers consumers = new Consumers();
+  public Chaos chaos = new Chaos();
+  /**
+   * Relative weights of the operations issued by the producer tasks: {@code write}, {@code
+   * listStreams}, {@code listSubscriptions} and {@code subscriptionChurn}, the creation and
+   * deletion of a subscription. Reads are done by the consumers.
+   */
+  public Map<String, Double> mix = new LinkedHashMap<>(Map.of("write", 1.0));
+
+  public static class Streams {
+    public int count = 1;
+    public short replicationFactor = 3;
+  }
+
+  public static class Producers {
+    public int count = 1;
+    /** Records per batch of a buffered producer, 0 for a producer without batching. */
+    public int batchSize = 0;
+    /** Writes in flight per producer. */
+    public int window = 256;
+    /** Operations per second of all the producers together, 0 for as fast as possible. */
+    public double targetRate = 0;
+  }
+
+  public static class Payload {
+    /**
+     * {@code fixed} sizes of {@code size} bytes, or {@code uniform} in [{@code min}, {@code max}].
+     */
+    public String distribution = "fixed";
+
+    public int size = 128;
+    public int min = 16;
+    public int max = 1024;
+  }
+
+  public static class OrderingKeys {
+    /** 0 for records without ordering key. */
+    public int count = 0;
+    /** {@code uniform} or {@code zipfian}. */
+    public String distribution = "uniform";
+    /** The exponent of the zipfian distribution. */
+    public double exponent = 0.99;
+  }
+
+  public static class Consumers {
+    /** Subscriptions, i.e. consumer groups, per stream. */
+    public int groups = 1;
+
+    public int perGroup = 1;
+    /** Fraction of the records acked, the others are left to be redelivered. */
+    public double ackRatio = 1.0;
+  }
+
+  /**
+   * Faults injected by a {@link ChaosScheduler} while the workload runs, none by default. With
+   * faults, failed operations are counted instead of failing the run.
+   */
+  public static class Chaos {
+    /**
+     * A {@link ChaosScheduler#script}, e.g. {@code "10s kill hserver-1; 20s restart hserver-1"},
+     * run within the duration and the drain.
+     */
+    public String script;
+    /**
+     * Draws a {@link ChaosScheduler#random} timeline over the duration, from {@code seed}, else
+     * from {@code -Dchaos.seed} or a new seed.
+     */
+    public boolean random = false;
+
+    public Long seed;
+    /** The targets of the random timeline. */
+    public List<String> targets = List.of("hserver-0", "hserver-1", "hserver-2");
+
+    public int minGapSeconds = 10;
+    public int minDownSeconds = 5;
+
+    boolean isEnabled() {
+      return script != null || random;
+    }
+
+    List<ChaosScheduler.Step> timeline(int durationSeconds) {
+      if (script != null) {
+        return ChaosScheduler.script(script);
+      }
+      return ChaosScheduler.random(
+          seed != null ? seed : ChaosScheduler.seed(),
+          Duration.ofSeconds(durationSeconds),
+          targets,
+          Duration.ofSeconds(minGapSeconds),
+          Duration.ofSeconds(minDownSeconds));
+    }
+  }
+
+  public static WorkloadSpec read(String fileName, InputStream in) throws IOException {
+    ObjectMapper mapper =
+        fileName.endsWith(".json") ? new ObjectMapper() : new ObjectMapper(new YAMLFactory());
+    WorkloadSpec spec = mapper.readValue(in, WorkloadSpec.class);
+    spec.validate();
+    return spec;
+  }
+
+  void validate() {
+    for (String operation : mix.keySet()) {
+      if (!WorkloadRunner.OPERATIONS.contains(operation)) {
+        throw new IllegalArgumentException(
+            name + ": unknown operation " + operation + ", expected " + WorkloadRunner.OPERATIONS);
+      }
+    }
+    if (mix.values().stream().mapToDouble(Double::doubleValue).sum() <= 0) {
+      throw new IllegalArgumentException(
+          name + ": the weights of the mix must add up to more than 0");
+    }
+    if (!payload.distribution.equals("fixed") && !payload.distribution.equals("uniform")) {
+      throw new IllegalArgumentException(
+          name + ": unknown payload distribution " + payload.distribution);
+    }
+    if (!orderingKeys.distribution.equals("uniform")
+        && !orderingKeys.distribution.equals("zipfian")) {
+      throw new IllegalArgumentException(
+          name + ": unknown ordering key distribution " + orderingKeys.distribution);
+    }
+    if (producers.batchSize > producers.window) {
+      throw new IllegalArgumentException(
+          name + ": the window must hold at least a batch, or writes never complete");
+    }
+    if (chaos.script != null && chaos.random) {
+      throw new IllegalArgumentException(name + ": chaos is either a script or random");
+    }
+    if (chaos.random && (chaos.targets.isEmpty() || chaos.targets.contains("hstore"))) {
+      throw new IllegalArgumentException(
+          name + ": random chaos needs targets, and cannot restart hstore, see ChaosScheduler");
+    }
+  }
+}
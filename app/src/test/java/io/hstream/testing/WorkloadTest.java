@@ -0,0 +1,103 @@
+package io.hstream.testing;
+
+import io.hstream.HStreamClient;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Runs every workload spec of {@code src/test/resources/workloads}, or only the file given with
+ * {@code -Dworkload.spec=path/to/spec.yaml}.
+ */
+@ExtendWith(ClusterExtension.class)
+@RecordFlight
+public class WorkloadTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(WorkloadTest.class);
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+  private ChaosScheduler chaosScheduler;
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  public void setChaosScheduler(ChaosScheduler chaosScheduler) {
+    this.chaosScheduler = chaosScheduler;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    hStreamClient.close();
+  }
+
+  static List<Path> specs() throws Exception {
+    String spec = System.getProperty("workload.spec");
+    if (spec != null) {
+      return List.of(Paths.get(spec));
+    }
+    Path dir = Paths.get(WorkloadTest.class.getResource("/workloads").toURI());
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @ParameterizedTest(name = "{0}")
+  @MethodSource("specs")
+  @Timeout(600)
+  void testWorkload(Path specFile) throws Exception {
+    WorkloadSpec spec;
+    try (InputStream in = Files.newInputStream(specFile)) {
+      spec = WorkloadSpec.read(specFile.getFileName().toString(), in);
+    }
+    WorkloadRunner runner = new WorkloadRunner(hStreamClient, spec, chaosScheduler);
+    runner.run().write(context, logMsgPathPrefix);
+    // every group receives every record written, and unacked records are received again
+    Assertions.assertTrue(
+        runner.received() >= runner.written() * spec.consumers.groups,
+        () -> runner.received() + " records received of " + runner.written() + " written");
+  }
+}
@@ -0,0 +1,133 @@
+package io.hstream.testing;
+
+import static io.hstream.testing.TestUtils.makeBufferedProducer;
+import static io.hstream.testing.TestUtils.produce;
+
+import io.hstream.BufferedProducer;
+import io.hstream.HStreamClient;
+import io.hstream.Producer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.ExtensionContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.containers.GenericContainer;
+
+/**
+ * Measures write throughput and latency as a function of the number of writes in flight. The
+ * windows can be overridden with {@code -Dwrite.windows=1,16,256}. Each HServer and HStore get two
+ * CPUs of time, so that the runs of different hosts compare.
+ */
+@ExtendWith(ClusterExtension.class)
+@ResourceLimits(server = @ResourceLimits.Limit(cpus = 2), store = @ResourceLimits.Limit(cpus = 2))
+public class WriteWindowTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(WriteWindowTest.class);
+  private static final String DEFAULT_WINDOWS = "1,4,16,64,256,1024";
+  private static final int PAYLOAD_SIZE = 1024;
+  private static final int RECORD_COUNT = 8192;
+  private static final int BATCH_SIZE = 16;
+  private String hStreamDBUrl;
+  private HStreamClient hStreamClient;
+  private List<GenericContainer<?>> hServers;
+  private List<String> hServerUrls;
+  private String logMsgPathPrefix;
+  private ExtensionContext context;
+
+  public void setHStreamDBUrl(String hStreamDBUrl) {
+    this.hStreamDBUrl = hStreamDBUrl;
+  }
+
+  public void setHServers(List<GenericContainer<?>> hServers) {
+    this.hServers = hServers;
+  }
+
+  public void setHServerUrls(List<String> hServerUrls) {
+    this.hServerUrls = hServerUrls;
+  }
+
+  public void setLogMsgPathPrefix(String logMsgPathPrefix) {
+    this.logMsgPathPrefix = logMsgPathPrefix;
+  }
+
+  public void setExtensionContext(ExtensionContext context) {
+    this.context = context;
+  }
+
+  @BeforeEach
+  public void setup() throws Exception {
+    logger.debug("hStreamDBUrl " + hStreamDBUrl);
+    hStreamClient = HStreamClient.builder().serviceUrl(hStreamDBUrl).build();
+  }
+
+  @AfterEach
+  public void teardown() throws Exception {
+    hStreamClient.close();
+  }
+
+  private static List<Integer> windows() {
+    List<Integer> windows = new ArrayList<>();
+    for (String window : System.getProperty("write.windows", DEFAULT_WINDOWS).split(",")) {
+      windows.add(Integer.parseInt(window.trim()));
+    }
+    return windows;
+  }
+
+  private static void benchmarkWrite(BenchmarkReport.Row row, PipelinedWriter writer)
+      throws InterruptedException {
+    long begin = System.nanoTime();
+    var written = produce(writer, PAYLOAD_SIZE, RECORD_COUNT, null);
+    row.throughput(RECORD_COUNT, (long) RECORD_COUNT * PAYLOAD_SIZE, System.nanoTime() - begin)
+        .latency("write", writer.latencies());
+    Assertions.assertEquals(RECORD_COUNT, written.ids.size());
+  }
+
+  // -----------------------------------------------------------------------------------------------
+
+  @Test
+  @Timeout(900)
+  void testThroughputByWindow() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("throughput-by-window");
+    List<Integer> windows = windows();
+    Iterator<String> streams;
+    try (Provisioner provisioner = new Provisioner(hStreamClient)) {
+      streams = provisioner.createStreams(windows.size(), (short) 3).iterator();
+    }
+    for (int window : windows) {
+      Producer producer = hStreamClient.newProducer().stream(streams.next()).build();
+      benchmarkWrite(
+          report.row("producer,window=" + window), new PipelinedWriter(producer, window));
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+
+  @Test
+  @Timeout(900)
+  void testBufferedThroughputByWindow() throws Exception {
+    BenchmarkReport report = new BenchmarkReport("buffered-throughput-by-window");
+    List<Integer> windows = windows();
+    Iterator<String> streams;
+    try (Provisioner provisioner = new Provisioner(hStreamClient)) {
+      streams = provisioner.createStreams(windows.size(), (short) 3).iterator();
+    }
+    for (int window : windows) {
+      // smaller windows than a batch would only complete when the producer is closed
+      if (window < BATCH_SIZE) {
+        continue;
+      }
+      BufferedProducer producer = makeBufferedProducer(hStreamClient, streams.next(), BATCH_SIZE);
+      benchmarkWrite(
+          report.row("buffered-" + BATCH_SIZE + ",window=" + window),
+          new PipelinedWriter(producer, window));
+      producer.close();
+    }
+    report.write(context, logMsgPathPrefix);
+  }
+}